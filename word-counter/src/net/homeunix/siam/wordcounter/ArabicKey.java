@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package net.homeunix.siam.wordcounter;
+
+import java.util.Arrays;
+
+/**
+ * Codec for vocabulary keys. Almost every word is made of chars from U+0600 to U+06FF only, like
+ * {@link MasryConsts#someArabicCharacters} says. Such a word is encoded as one byte per char,
+ * its offset from U+0600. A word with any other char escapes to its UTF-16 chars.
+ * An ArabicKey is also a key that is reused to put words together with affixes. It is encoded
+ * as long as it can be, hashing, comparing to keys in a {@link StringArena} and adding affixes work
+ * on the bytes. The hash is the same as the one of the String with these chars,
+ * so a {@link Vocabulary} finds its words by a key without making a String of it.
+ *
+ * @author Omar Siam
+ *
+ */
+public final class ArabicKey implements CharSequence {
+
+	/**
+	 * The char encoded as 0.
+	 */
+	public static final char BASE = '\u0600';
+
+	private byte[] bytes = new byte[32];
+
+	/**
+	 * The chars if the key escaped, else null.
+	 */
+	private char[] chars;
+
+	private int length;
+
+	private int hash;
+
+	private boolean hashed;
+
+	/**
+	 * Can c be encoded in a byte.
+	 * @param c
+	 * @return
+	 */
+	public static boolean fits(char c) {
+		return (c - BASE) >>> 8 == 0;
+	}
+
+	/**
+	 * Can all the chars of s be encoded.
+	 * @param s
+	 * @return
+	 */
+	public static boolean fits(CharSequence s) {
+		for (int i = 0; i < s.length(); i++)
+			if (!fits(s.charAt(i)))
+				return false;
+		return true;
+	}
+
+	public static byte encode(char c) {
+		return (byte) (c - BASE);
+	}
+
+	public static char decode(byte b) {
+		return (char) (BASE + (b & 0xFF));
+	}
+
+	/**
+	 * Are the chars bytes or did the key escape.
+	 * @return
+	 */
+	public boolean isEncoded() {
+		return chars == null;
+	}
+
+	/**
+	 * The encoded char at index, only if the key {@link #isEncoded() is encoded}.
+	 * @param index
+	 * @return
+	 */
+	byte byteAt(int index) {
+		return bytes[index];
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (chars != null) {
+			if (chars.length < capacity)
+				chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+		} else if (bytes.length < capacity)
+			bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+	}
+
+	/**
+	 * Decode the bytes to chars from now on.
+	 */
+	private void escape() {
+		chars = new char[Math.max(bytes.length, 16)];
+		for (int i = 0; i < length; i++)
+			chars[i] = decode(bytes[i]);
+	}
+
+	/**
+	 * Write the chars of s at index.
+	 */
+	private void put(int index, CharSequence s) {
+		int n = s.length();
+		if (chars == null && !fits(s))
+			escape();
+		ensureCapacity(index + n);
+		if (chars != null)
+			for (int i = 0; i < n; i++)
+				chars[index + i] = s.charAt(i);
+		else
+			for (int i = 0; i < n; i++)
+				bytes[index + i] = encode(s.charAt(i));
+	}
+
+	public ArabicKey set(CharSequence s) {
+		chars = null;
+		length = 0;
+		return append(s);
+	}
+
+	public ArabicKey set(ArabicKey key) {
+		if (key.chars != null) {
+			chars = key.chars.length > (chars != null ? chars.length : 0) ? new char[key.chars.length] : chars;
+			System.arraycopy(key.chars, 0, chars, 0, key.length);
+		} else {
+			chars = null;
+			ensureCapacity(key.length);
+			System.arraycopy(key.bytes, 0, bytes, 0, key.length);
+		}
+		length = key.length;
+		hashed = false;
+		return this;
+	}
+
+	public ArabicKey append(CharSequence s) {
+		put(length, s);
+		length += s.length();
+		hashed = false;
+		return this;
+	}
+
+	public ArabicKey append(ArabicKey key) {
+		if (chars == null && key.chars == null) {
+			ensureCapacity(length + key.length);
+			System.arraycopy(key.bytes, 0, bytes, length, key.length);
+			length += key.length;
+			hashed = false;
+			return this;
+		}
+		return append((CharSequence) key);
+	}
+
+	/**
+	 * Drop the last char.
+	 * @return
+	 */
+	public ArabicKey dropLast() {
+		length--;
+		hashed = false;
+		return this;
+	}
+
+	/**
+	 * Replace every from by to.
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public ArabicKey replace(char from, char to) {
+		if (chars == null && !fits(to) && contains(from))
+			escape();
+		if (chars != null) {
+			for (int i = 0; i < length; i++)
+				if (chars[i] == from)
+					chars[i] = to;
+		} else if (fits(from)) {
+			byte f = encode(from);
+			byte t = encode(to);
+			for (int i = 0; i < length; i++)
+				if (bytes[i] == f)
+					bytes[i] = t;
+		}
+		hashed = false;
+		return this;
+	}
+
+	public boolean contains(char c) {
+		if (chars != null) {
+			for (int i = 0; i < length; i++)
+				if (chars[i] == c)
+					return true;
+		} else if (fits(c)) {
+			byte b = encode(c);
+			for (int i = 0; i < length; i++)
+				if (bytes[i] == b)
+					return true;
+		}
+		return false;
+	}
+
+	public boolean endsWith(CharSequence suffix) {
+		int n = suffix.length();
+		if (n > length)
+			return false;
+		for (int i = 0; i < n; i++)
+			if (charAt(length - n + i) != suffix.charAt(i))
+				return false;
+		return true;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		return chars != null ? chars[index] : decode(bytes[index]);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().substring(start, end);
+	}
+
+	/**
+	 * Same as the hash code of the String with these chars.
+	 */
+	@Override
+	public int hashCode() {
+		if (!hashed) {
+			int h = 0;
+			if (chars != null)
+				for (int i = 0; i < length; i++)
+					h = 31 * h + chars[i];
+			else
+				for (int i = 0; i < length; i++)
+					h = 31 * h + BASE + (bytes[i] & 0xFF);
+			hash = h;
+			hashed = true;
+		}
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof ArabicKey))
+			return false;
+		ArabicKey key = (ArabicKey) o;
+		if (key.length != length || key.hashCode() != hashCode())
+			return false;
+		for (int i = 0; i < length; i++)
+			if (key.charAt(i) != charAt(i))
+				return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		if (chars != null)
+			return new String(chars, 0, length);
+		char[] decoded = new char[length];
+		for (int i = 0; i < length; i++)
+			decoded[i] = decode(bytes[i]);
+		return new String(decoded);
+	}
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package net.homeunix.siam.wordcounter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.homeunix.siam.wordcounter.TokenAndType.TokenType;
+
+/**
+ * Saves the state of counting a text from time to time so a run that died can go on from there.
+ * A checkpoint holds the position in the text, the context buffer, the delimiter codes, the token
+ * ids, the size of the log of the text, the articles of a dump and the words counted so far with
+ * the positions of their contexts. Every String is written only once, later occurrences are written
+ * as the number it got the first time.
+ * The log only grows, the items logged since the last checkpoint are appended to a file of its own
+ * next to the checkpoint and only their number is kept in it. Saving the log costs the same however
+ * much of the text was read before.
+ * The checkpoint is written next to it and then moved over it so there is always one complete
+ * checkpoint. The log file may have items after those of the checkpoint if a run died while
+ * saving, they are dropped the next time.
+ *
+ * @author Omar Siam
+ *
+ */
+public class Checkpoint {
+
+	/**
+	 * Default number of token between checkpoints.
+	 */
+	public static final int INTERVAL = 10000000;
+
+	private static final int MAGIC = 0x57434350;
+
+	private static final int VERSION = 7;
+
+	private final Path file;
+
+	/**
+	 * The items of the log.
+	 */
+	private final Path log;
+
+	/**
+	 * Number of items of the log in the log file that belong to the checkpoint.
+	 */
+	private long logged = 0;
+
+	private final int interval;
+
+	private final TokenStream stream;
+
+	private WikiDumpSource wiki;
+
+	/**
+	 * Stream that writes each String only once.
+	 */
+	static class Output extends DataOutputStream {
+
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+		Output(OutputStream out) {
+			super(out);
+		}
+
+		void writeString(String s) throws IOException {
+			if (s == null) {
+				writeInt(-1);
+				return;
+			}
+			Integer id = ids.get(s);
+			if (id != null) {
+				writeInt(id);
+				return;
+			}
+			ids.put(s, ids.size());
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeInt(-2);
+			writeInt(bytes.length);
+			write(bytes);
+		}
+	}
+
+	/**
+	 * Reads what an {@link Output} wrote.
+	 */
+	static class Input extends DataInputStream {
+
+		private final List<String> strings = new ArrayList<String>();
+
+		Input(InputStream in) {
+			super(in);
+		}
+
+		String readString() throws IOException {
+			int id = readInt();
+			if (id == -1)
+				return null;
+			if (id >= 0)
+				return strings.get(id);
+			byte[] bytes = new byte[readInt()];
+			readFully(bytes);
+			String s = new String(bytes, StandardCharsets.UTF_8);
+			strings.add(s);
+			return s;
+		}
+	}
+
+	/**
+	 * @param file
+	 * Where the checkpoint is kept.
+	 * @param interval
+	 * Number of token between checkpoints.
+	 * @param stream
+	 * The text being counted.
+	 */
+	public Checkpoint(Path file, int interval, TokenStream stream) {
+		this.file = file;
+		this.log = Paths.get(file.toString() + ".log");
+		this.interval = interval;
+		this.stream = stream;
+	}
+
+	/**
+	 * Keep the articles the logged token belong to.
+	 * @param wiki
+	 * The dump being counted.
+	 */
+	public void usePages(WikiDumpSource wiki) {
+		this.wiki = wiki;
+	}
+
+	/**
+	 * Number of items of the log that were saved. The ones after them may not be discarded
+	 * before the next checkpoint.
+	 * @return
+	 */
+	public long logged() {
+		return logged;
+	}
+
+	/**
+	 * Was a checkpoint written before.
+	 * @return
+	 */
+	public boolean exists() {
+		return Files.exists(file);
+	}
+
+	/**
+	 * Is a checkpoint to be written after this many token.
+	 * @param iterations
+	 * @return
+	 */
+	public boolean due(int iterations) {
+		return iterations % interval == 0;
+	}
+
+	/**
+	 * Write a checkpoint. The stream must not have looked ahead after the token it returned last.
+	 * @param iterations
+	 * Number of token processed so far.
+	 * @param wordCount
+	 * @param context
+	 * @param messages
+	 * Comments printed so far.
+	 * @throws IOException
+	 */
+	public void save(int iterations, Map<String, WordCounterData> wordCount, CircularBuffer<TokenAndType> context, List<String> messages) throws IOException {
+		try (FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			// drop what a run that died while saving appended
+			channel.truncate(4 * logged);
+			channel.position(4 * logged);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+			Run.TEXT.write(out, logged);
+			out.flush();
+			channel.force(false);
+		}
+		Path temp = Paths.get(file.toString() + ".tmp");
+		try (Output out = new Output(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(iterations);
+			out.writeLong(stream.position());
+			out.writeString(stream.lastDelimiter());
+			out.writeInt(Run.DELIMITERS.size());
+			for (int code = 0; code < Run.DELIMITERS.size(); code++)
+				out.writeString(Run.DELIMITERS.get(code));
+			out.writeInt(Run.TOKENS.size());
+			for (int n = 0; n < Run.TOKENS.size(); n++)
+				out.writeString(Run.TOKENS.get(n << 1));
+			out.writeLong(Run.TEXT.size());
+			if (wiki != null)
+				wiki.write(out);
+			else
+				out.writeInt(0);
+			out.writeInt(messages.size());
+			for (String message: messages)
+				out.writeString(message);
+			// size() of the buffer is its capacity
+			List<TokenAndType> items = new ArrayList<TokenAndType>();
+			for (TokenAndType tt: context)
+				items.add(tt);
+			out.writeInt(items.size());
+			for (TokenAndType tt: items) {
+				out.writeString(tt.token);
+				out.writeByte(tt.type.ordinal());
+				out.writeInt(tt.code);
+			}
+			out.writeInt(wordCount.size());
+			for (Map.Entry<String, WordCounterData> entry: wordCount.entrySet()) {
+				out.writeString(entry.getKey());
+				entry.getValue().write(out);
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		logged = Run.TEXT.size();
+	}
+
+	/**
+	 * Read the checkpoint and make the stream go on where it was written.
+	 * @param wordCount
+	 * Gets the words counted before the checkpoint.
+	 * @param context
+	 * Gets the context at the checkpoint.
+	 * @param messages
+	 * Gets the comments printed before the checkpoint.
+	 * @return
+	 * The number of token processed before the checkpoint.
+	 * @throws IOException
+	 */
+	public int restore(Map<String, WordCounterData> wordCount, CircularBuffer<TokenAndType> context, List<String> messages) throws IOException {
+		try (Input in = new Input(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(file + " is no checkpoint");
+			int iterations = in.readInt();
+			long offset = in.readLong();
+			String lastDelimiter = in.readString();
+			int delimiters = in.readInt();
+			for (int code = 0; code < delimiters; code++)
+				if (Run.DELIMITERS.code(in.readString()) != code)
+					throw new IOException("Delimiters were numbered before the checkpoint was read");
+			int tokens = in.readInt();
+			for (int n = 0; n < tokens; n++)
+				if (Run.TOKENS.id(in.readString(), TokenType.WORD) != n << 1)
+					throw new IOException("Token were numbered before the checkpoint was read");
+			if (Run.TEXT.size() > 0)
+				throw new IOException("Text was logged before the checkpoint was read");
+			long items = in.readLong();
+			if (Files.size(log) < 4 * items)
+				throw new IOException(log + " is shorter than the checkpoint says");
+			try (DataInputStream logIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(log), 1 << 16))) {
+				Run.TEXT.read(logIn, items);
+			}
+			logged = items;
+			if (wiki != null)
+				wiki.read(in);
+			else
+				in.skipBytes(16 * in.readInt());
+			for (int i = in.readInt(); i > 0; i--)
+				messages.add(in.readString());
+			TokenType[] types = TokenType.values();
+			for (int i = in.readInt(); i > 0; i--) {
+				TokenAndType tt = new TokenAndType(in.readString(), types[in.readByte()]);
+				tt.code = in.readInt();
+				context.add(tt);
+			}
+			for (int i = in.readInt(); i > 0; i--) {
+				String word = in.readString();
+				wordCount.put(word, WordCounterData.read(in));
+			}
+			stream.resumeAt(offset, lastDelimiter);
+			return iterations;
+		}
+	}
+}
@@ -259,6 +259,17 @@ public class  CircularBuffer<T> implements Queue<T> {
 	}
 	
 	
+	/**
+	 * Gets the element the next add overwrites.
+	 * @return
+	 * The element at the tail if the buffer is full and overwrite is true, else null.
+	 */
+	public T overwritten() {
+		if (overwrite && ((tail == 0 && head == buffer.length - 1) || head == (tail - 1)))
+			return buffer[tail];
+		return null;
+	}
+
 	/**
 	 * Gets the element at index of the circular buffer (counting from tail).
 	 * @param index
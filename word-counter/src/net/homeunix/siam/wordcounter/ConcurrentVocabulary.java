@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package net.homeunix.siam.wordcounter;
+
+import java.util.AbstractMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The words counted by several threads at once in one table. Looking up a word doesn't lock,
+ * only counting it locks its {@link WordCounterData} while it is updated, so counts, forms and
+ * contexts of a word change atomically and threads only wait for each other if they count
+ * the same word at the same time.
+ * Iterating is not thread safe, the entries are returned in no particular order.
+ *
+ * @author Omar Siam
+ *
+ */
+public class ConcurrentVocabulary extends AbstractMap<String, WordCounterData> {
+
+	private final ConcurrentHashMap<String, WordCounterData> words = new ConcurrentHashMap<String, WordCounterData>(1 << 16);
+
+	/**
+	 * Count one occurrence of a normalized word that was found as form in the file source.
+	 * Same as {@link WordCounterData#count(java.util.Map, String, int, long, String)}, but thread safe.
+	 * @param word
+	 * @param form
+	 * Id of the form in {@link Run#TOKENS}.
+	 * @param position
+	 * @param source
+	 */
+	public void count(String word, int form, long position, String source) {
+		WordCounterData data = words.get(word);
+		if (data == null) {
+			data = words.putIfAbsent(word, new WordCounterData(position, form, source));
+			if (data == null)
+				return;
+			// another thread found the word first
+		}
+		synchronized (data) {
+			data.inc(position, form, source);
+		}
+	}
+
+	@Override
+	public WordCounterData get(Object key) {
+		return words.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return words.containsKey(key);
+	}
+
+	@Override
+	public WordCounterData put(String key, WordCounterData value) {
+		return words.put(key, value);
+	}
+
+	@Override
+	public WordCounterData remove(Object key) {
+		return words.remove(key);
+	}
+
+	@Override
+	public int size() {
+		return words.size();
+	}
+
+	@Override
+	public void clear() {
+		words.clear();
+	}
+
+	@Override
+	public Set<Entry<String, WordCounterData>> entrySet() {
+		return words.entrySet();
+	}
+}
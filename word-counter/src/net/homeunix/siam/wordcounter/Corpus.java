@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package net.homeunix.siam.wordcounter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The files of a text corpus given on the command line. That is a directory, a glob pattern
+ * like corpus/**.txt or a list of these separated by the path separator (: or ;).
+ * Directories are searched recursively. The files are sorted so they are always counted in
+ * the same order.
+ *
+ * @author Omar Siam
+ *
+ */
+public class Corpus {
+
+	private static final String GLOB_CHARS = "*?[{";
+
+	private Corpus() {
+	}
+
+	/**
+	 * Does the argument name more than one plain file.
+	 * @param spec
+	 * @return
+	 */
+	public static boolean isCorpus(String spec) {
+		if (spec.contains(File.pathSeparator))
+			return true;
+		for (char c: GLOB_CHARS.toCharArray())
+			if (spec.indexOf(c) >= 0)
+				return true;
+		return Files.isDirectory(Paths.get(spec));
+	}
+
+	/**
+	 * List the files of a corpus.
+	 * @param spec
+	 * @return
+	 * @throws IOException
+	 * If there is no file at all.
+	 */
+	public static List<Path> list(String spec) throws IOException {
+		List<Path> result = new ArrayList<Path>();
+		for (String part: spec.split(File.pathSeparator)) {
+			if (part.isEmpty())
+				continue;
+			int glob = firstGlobChar(part);
+			if (glob < 0) {
+				Path path = Paths.get(part);
+				if (Files.isDirectory(path))
+					addFiles(path, null, result);
+				else
+					result.add(path);
+				continue;
+			}
+			// Search the directory before the first glob character.
+			int separator = Math.max(part.lastIndexOf('/', glob), part.lastIndexOf(File.separatorChar, glob));
+			Path base = Paths.get(separator < 0 ? "." : part.substring(0, separator + 1));
+			addFiles(base, FileSystems.getDefault().getPathMatcher("glob:" + part.substring(separator + 1)), result);
+		}
+		if (result.isEmpty())
+			throw new IOException("There are no files in " + spec);
+		Collections.sort(result);
+		return result;
+	}
+
+	private static int firstGlobChar(String s) {
+		int result = -1;
+		for (char c: GLOB_CHARS.toCharArray()) {
+			int i = s.indexOf(c);
+			if (i >= 0 && (result < 0 || i < result))
+				result = i;
+		}
+		return result;
+	}
+
+	/**
+	 * Add the regular files in directory and below.
+	 * @param directory
+	 * @param matcher
+	 * Matches the paths relative to directory or null for all files.
+	 * @param result
+	 * @throws IOException
+	 */
+	private static void addFiles(final Path directory, final PathMatcher matcher, final List<Path> result) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile() && (matcher == null || matcher.matches(directory.relativize(file))))
+					result.add(file.normalize());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
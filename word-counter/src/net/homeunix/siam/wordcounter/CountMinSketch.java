@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package net.homeunix.siam.wordcounter;
+
+/**
+ * Count-min sketch of how often words were found. Each of depth rows has width counters,
+ * a word counts in one counter of every row and its estimate is the smallest of them.
+ * The estimate is never less than the real count. Counters are only incremented if they are
+ * the smallest of the word (conservative update), which keeps the estimates closer.
+ * If n words were counted an estimate is at most e * n / width too high with a
+ * probability of at least 1 - e<sup>-depth</sup>.
+ *
+ * @author Omar Siam
+ *
+ */
+public final class CountMinSketch {
+
+	public static final int DEPTH = 4;
+
+	public static final int WIDTH = 1 << 20;
+
+	private final int[][] rows;
+
+	private final int mask;
+
+	private long total = 0;
+
+	public CountMinSketch() {
+		this(DEPTH, WIDTH);
+	}
+
+	/**
+	 * @param depth
+	 * @param width
+	 * Rounded up to a power of two.
+	 */
+	public CountMinSketch(int depth, int width) {
+		int w = Integer.highestOneBit(Math.max(width, 2) * 2 - 1);
+		rows = new int[depth][w];
+		mask = w - 1;
+	}
+
+	/**
+	 * 64 bit FNV-1a of the chars, the rows use its halves like two independent hashes.
+	 */
+	private static long hash(CharSequence word) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < word.length(); i++) {
+			h ^= word.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h ^ (h >>> 29);
+	}
+
+	private int index(long hash, int row) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		return (h1 + row * h2) & mask;
+	}
+
+	/**
+	 * Count one occurrence of word.
+	 * @param word
+	 * @return
+	 * The estimate of its count including this one.
+	 */
+	public int add(CharSequence word) {
+		long hash = hash(word);
+		int min = Integer.MAX_VALUE;
+		for (int r = 0; r < rows.length; r++)
+			min = Math.min(min, rows[r][index(hash, r)]);
+		if (min == Integer.MAX_VALUE)
+			return min;
+		for (int r = 0; r < rows.length; r++) {
+			int i = index(hash, r);
+			if (rows[r][i] == min)
+				rows[r][i] = min + 1;
+		}
+		total++;
+		return min + 1;
+	}
+
+	/**
+	 * @param word
+	 * @return
+	 * At least the number of times word was {@link #add(CharSequence) added}.
+	 */
+	public int estimate(CharSequence word) {
+		long hash = hash(word);
+		int min = Integer.MAX_VALUE;
+		for (int r = 0; r < rows.length; r++)
+			min = Math.min(min, rows[r][index(hash, r)]);
+		return min;
+	}
+
+	/**
+	 * Number of words counted.
+	 * @return
+	 */
+	public long total() {
+		return total;
+	}
+
+	public int depth() {
+		return rows.length;
+	}
+
+	public int width() {
+		return mask + 1;
+	}
+
+	/**
+	 * How much an estimate is too high at most with a probability of {@link #confidence()}.
+	 * @return
+	 */
+	public long errorBound() {
+		return (long) Math.ceil(Math.E * total / width());
+	}
+
+	public double confidence() {
+		return 1 - Math.exp(-depth());
+	}
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A table driven automaton that finds runs of delimiters between words.
+ * It understands the same kind of delimiters as Run.SEPARATOR_PATTERN:
+ * single delimiter characters, fixed sequences like the entities &amp;lt and
+ * characters that are only delimiters if they are not followed by a digit (as in [,.](?!\d)).
+ * A run is one or more of these pieces, the longest sequence wins like in the regexp.
+ * Every character is looked up once in a 64K table of character classes (a 256 entry table
+ * for UTF-8 bytes) and then in the transition table so plain text is scanned in one forward
+ * pass without any backtracking.
+ * Searching for the start of a delimiter only looks at a table of the characters delimiters
+ * start with and tests {@link #BATCH} characters at once, the automaton only runs where one is found.
+ * UTF-8 is searched in a table of byte pairs one byte at a time instead: Arabic delimiters share
+ * their lead bytes with nearly all the letters, only the byte after it tells them apart.
+ *
+ * @author Omar Siam
+ *
+ */
+public class DelimiterDfa implements DelimiterMatcher {
+
+	/**
+	 * Number of characters (or bytes) tested at once when searching for a delimiter.
+	 */
+	public static final int BATCH = 8;
+
+	private static final int DEAD = -1;
+	private static final int START = 0;
+
+	private static final byte ACCEPT_NEVER = 0;
+	private static final byte ACCEPT = 1;
+	private static final byte ACCEPT_UNLESS_DIGIT = 2;
+
+	/**
+	 * Class of every character (or byte), 0 is for characters that never are part of a delimiter.
+	 */
+	private final byte[] charClass;
+
+	/**
+	 * Pseudo class used for the end of input.
+	 */
+	private final int endClass;
+
+	private final int classCount;
+
+	private final boolean[] digitClass;
+
+	/**
+	 * The next state for state * classCount + class.
+	 */
+	private final int[] transitions;
+
+	private final byte[] accepting;
+
+	/**
+	 * 1 for every character (or byte) a delimiter may start with, 0 for the others.
+	 */
+	private final byte[] startsDelimiter;
+
+	/**
+	 * 1 for every pair of bytes a delimiter may start with, indexed by first byte * 256 + second byte.
+	 * Only for automata compiled for UTF-8.
+	 */
+	private final byte[] startsDelimiterPair;
+
+	/**
+	 * Node of the trie the automaton is built from.
+	 */
+	private static class Node {
+		int[] children;
+		byte accept = ACCEPT_NEVER;
+		int id;
+		Node(int classCount, int id) {
+			children = new int[classCount];
+			for (int i = 0; i < classCount; i++)
+				children[i] = DEAD;
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Compile a set of delimiters into an automaton working on chars.
+	 * @param delimiterChars
+	 * Characters that are delimiters on their own.
+	 * @param notBeforeDigitChars
+	 * Characters that are delimiters only if no digit (0-9) follows.
+	 * @param sequences
+	 * Fixed sequences of characters that are one piece of a delimiter.
+	 * @return
+	 * The automaton.
+	 */
+	public static DelimiterDfa compile(String delimiterChars, String notBeforeDigitChars, String... sequences) {
+		return new DelimiterDfa(Character.MAX_VALUE + 1, delimiterChars, notBeforeDigitChars, sequences, false);
+	}
+
+	/**
+	 * Compile a set of delimiters into an automaton working on UTF-8 encoded bytes.
+	 * Every character is a sequence of bytes then. As UTF-8 is self synchronizing
+	 * searching for them never matches a part of some other character.
+	 * @param delimiterChars
+	 * Characters that are delimiters on their own.
+	 * @param notBeforeDigitChars
+	 * Characters that are delimiters only if no digit (0-9) follows.
+	 * @param sequences
+	 * Fixed sequences of characters that are one piece of a delimiter.
+	 * @return
+	 * The automaton.
+	 */
+	public static DelimiterDfa compileUtf8(String delimiterChars, String notBeforeDigitChars, String... sequences) {
+		return new DelimiterDfa(256, delimiterChars, notBeforeDigitChars, sequences, true);
+	}
+
+	private static int[] symbols(String piece, boolean utf8) {
+		if (utf8) {
+			byte[] bytes = piece.getBytes(StandardCharsets.UTF_8);
+			int[] result = new int[bytes.length];
+			for (int i = 0; i < bytes.length; i++)
+				result[i] = bytes[i] & 0xFF;
+			return result;
+		}
+		int[] result = new int[piece.length()];
+		for (int i = 0; i < piece.length(); i++)
+			result[i] = piece.charAt(i);
+		return result;
+	}
+
+	private DelimiterDfa(int alphabetSize, String delimiterChars, String notBeforeDigitChars, String[] sequences, boolean utf8) {
+		charClass = new byte[alphabetSize];
+		List<int[]> pieces = new ArrayList<int[]>();
+		List<Byte> accepts = new ArrayList<Byte>();
+		for (int i = 0; i < delimiterChars.length(); i++) {
+			pieces.add(symbols(delimiterChars.substring(i, i + 1), utf8));
+			accepts.add(ACCEPT);
+		}
+		for (int i = 0; i < notBeforeDigitChars.length(); i++) {
+			pieces.add(symbols(notBeforeDigitChars.substring(i, i + 1), utf8));
+			accepts.add(ACCEPT_UNLESS_DIGIT);
+		}
+		for (String sequence: sequences) {
+			pieces.add(symbols(sequence, utf8));
+			accepts.add(ACCEPT);
+		}
+
+		// Symbols that need to be told apart get a class of their own.
+		// All the other symbols that are delimiters on their own behave the same and share one class.
+		int nextClass = 1;
+		final int plainClass = nextClass++;
+		final int digits = nextClass++;
+		for (char c = '0'; c <= '9'; c++)
+			charClass[c] = (byte) digits;
+		for (int p = 0; p < pieces.size(); p++) {
+			int[] piece = pieces.get(p);
+			if (piece.length == 1 && accepts.get(p) == ACCEPT)
+				continue;
+			for (int symbol: piece)
+				if (charClass[symbol] == 0)
+					charClass[symbol] = (byte) nextClass++;
+		}
+		for (int[] piece: pieces)
+			if (charClass[piece[0]] == 0)
+				charClass[piece[0]] = (byte) plainClass;
+		endClass = nextClass++;
+		classCount = nextClass;
+		if (classCount > Byte.MAX_VALUE)
+			throw new IllegalArgumentException("Too many different characters in the delimiters");
+		digitClass = new boolean[classCount];
+		digitClass[digits] = true;
+
+		// Build a trie of all the pieces a delimiter can consist of.
+		List<Node> nodes = new ArrayList<Node>();
+		nodes.add(new Node(classCount, START));
+		for (int p = 0; p < pieces.size(); p++)
+			addPiece(nodes, pieces.get(p), accepts.get(p));
+
+		// Flatten the trie into the transition table. After a complete piece
+		// the next piece may start, so continue like at the root of the trie.
+		Node root = nodes.get(START);
+		transitions = new int[nodes.size() * classCount];
+		accepting = new byte[nodes.size()];
+		for (Node n: nodes) {
+			accepting[n.id] = n.accept;
+			for (int c = 0; c < classCount; c++) {
+				int next = n.children[c];
+				if (next == DEAD && n.accept != ACCEPT_NEVER && c != endClass)
+					next = root.children[c];
+				if (n.accept == ACCEPT_UNLESS_DIGIT && digitClass[c])
+					next = DEAD;
+				transitions[n.id * classCount + c] = next;
+			}
+		}
+		startsDelimiter = new byte[alphabetSize];
+		for (int c = 0; c < alphabetSize; c++)
+			if (transitions[START * classCount + charClass[c]] != DEAD)
+				startsDelimiter[c] = 1;
+		if (!utf8) {
+			startsDelimiterPair = null;
+			return;
+		}
+		startsDelimiterPair = new byte[256 * 256];
+		for (int first = 0; first < 256; first++) {
+			int state = transitions[START * classCount + charClass[first]];
+			if (state == DEAD)
+				continue;
+			for (int second = 0; second < 256; second++)
+				if (accepting[state] != ACCEPT_NEVER || transitions[state * classCount + charClass[second]] != DEAD)
+					startsDelimiterPair[first << 8 | second] = 1;
+		}
+	}
+
+	private void addPiece(List<Node> nodes, int[] piece, byte accept) {
+		Node n = nodes.get(START);
+		for (int symbol: piece) {
+			int c = charClass[symbol];
+			if (n.children[c] == DEAD) {
+				Node child = new Node(classCount, nodes.size());
+				nodes.add(child);
+				n.children[c] = child.id;
+			}
+			n = nodes.get(n.children[c]);
+		}
+		if (n.accept != ACCEPT)
+			n.accept = accept;
+	}
+
+	/**
+	 * Is this character never part of a delimiter.
+	 * @param c
+	 * @return
+	 */
+	public boolean isTokenChar(char c) {
+		return charClass[c] == 0;
+	}
+
+	/**
+	 * Is this byte never part of a delimiter. Only for automata compiled for UTF-8.
+	 * @param b
+	 * @return
+	 */
+	public boolean isTokenByte(byte b) {
+		return charClass[b & 0xFF] == 0;
+	}
+
+	/**
+	 * Finds the first position where a delimiter may start.
+	 * @param text
+	 * @param from
+	 * @param limit
+	 * @return
+	 * The position of the first candidate for a delimiter or limit if there is none.
+	 * Use {@link #matchAt(char[], int, int, boolean)} to know whether it really is one.
+	 */
+	@Override
+	public int find(char[] text, int from, int limit) {
+		final byte[] starts = startsDelimiter;
+		int i = from;
+		// Most of the text is words, skip them a batch at a time.
+		for (int batchEnd = limit - BATCH; i <= batchEnd; i += BATCH) {
+			if ((starts[text[i]] | starts[text[i + 1]] | starts[text[i + 2]] | starts[text[i + 3]]
+					| starts[text[i + 4]] | starts[text[i + 5]] | starts[text[i + 6]] | starts[text[i + 7]]) != 0)
+				break;
+		}
+		while (i < limit && starts[text[i]] == 0)
+			i++;
+		return i;
+	}
+
+	/**
+	 * Matches a run of delimiters starting exactly at from.
+	 * @param text
+	 * @param from
+	 * @param limit
+	 * The end of the valid characters in text.
+	 * @param endOfInput
+	 * True if there won't be any more characters after limit.
+	 * @return
+	 * The end of the delimiter run, {@link #NO_MATCH} if there is no delimiter at from or
+	 * {@link #NEED_INPUT} if the run reaches limit and more input may change the result.
+	 */
+	@Override
+	public int matchAt(char[] text, int from, int limit, boolean endOfInput) {
+		int state = START;
+		int attemptStart = from;
+		int lastAccept = NO_MATCH;
+		int i = from;
+		while (true) {
+			int c;
+			if (i < limit)
+				c = charClass[text[i]];
+			else if (!endOfInput)
+				return NEED_INPUT;
+			else
+				c = endClass;
+			byte accept = accepting[state];
+			if (accept == ACCEPT || (accept == ACCEPT_UNLESS_DIGIT && !digitClass[c]))
+				lastAccept = i;
+			int next = transitions[state * classCount + c];
+			if (next == DEAD) {
+				if (lastAccept <= attemptStart)
+					return lastAccept;
+				// A longer sequence didn't match. Go on after the last complete piece.
+				attemptStart = i = lastAccept;
+				state = START;
+				continue;
+			}
+			state = next;
+			i++;
+		}
+	}
+
+	/**
+	 * Same as {@link #find(char[], int, int)} for UTF-8 encoded bytes.
+	 * @param text
+	 * @param from
+	 * @param limit
+	 * @return
+	 */
+	public int find(ByteBuffer text, int from, int limit) {
+		final byte[] pairs = startsDelimiterPair;
+		if (from >= limit)
+			return from;
+		// Arabic words are short, testing every byte pair is faster than batches here.
+		int next = text.get(from) & 0xFF;
+		for (int i = from, last = limit - 1; i < last; i++) {
+			int current = next;
+			next = text.get(i + 1) & 0xFF;
+			if (pairs[current << 8 | next] != 0)
+				return i;
+		}
+		// Without the next byte only the last one can be tested.
+		return startsDelimiter[next] != 0 ? limit - 1 : limit;
+	}
+
+	/**
+	 * Same as {@link #matchAt(char[], int, int, boolean)} for UTF-8 encoded bytes.
+	 * @param text
+	 * @param from
+	 * @param limit
+	 * @param endOfInput
+	 * @return
+	 */
+	public int matchAt(ByteBuffer text, int from, int limit, boolean endOfInput) {
+		int state = START;
+		int attemptStart = from;
+		int lastAccept = NO_MATCH;
+		int i = from;
+		while (true) {
+			int c;
+			if (i < limit)
+				c = charClass[text.get(i) & 0xFF];
+			else if (!endOfInput)
+				return NEED_INPUT;
+			else
+				c = endClass;
+			byte accept = accepting[state];
+			if (accept == ACCEPT || (accept == ACCEPT_UNLESS_DIGIT && !digitClass[c]))
+				lastAccept = i;
+			int next = transitions[state * classCount + c];
+			if (next == DEAD) {
+				if (lastAccept <= attemptStart)
+					return lastAccept;
+				attemptStart = i = lastAccept;
+				state = START;
+				continue;
+			}
+			state = next;
+			i++;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numbers the distinct delimiters found in a text. There are only a few of them, a space, ". ",
+ * "، " and so on, so contexts store the small code instead of a reference to some copy of the
+ * delimiter and the XML written for each delimiter is only escaped once.
+ * Codes are given out in the order delimiters are first seen, starting with 0. Can be shared by
+ * threads counting parts of a text.
+ *
+ * @author Omar Siam
+ *
+ */
+public final class DelimiterDictionary {
+
+	/**
+	 * Code for no delimiter at all.
+	 */
+	public static final int NONE = -1;
+
+	private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Delimiter for each code. Only ever replaced by a longer copy.
+	 */
+	private volatile String[] delimiters = new String[64];
+
+	private volatile String[] xml = new String[64];
+
+	private int size = 0;
+
+	/**
+	 * Get the code of a delimiter, new delimiters get the next free code.
+	 * @param delimiter
+	 * @return
+	 * The code or {@link #NONE} if delimiter is null.
+	 */
+	public int code(String delimiter) {
+		if (delimiter == null)
+			return NONE;
+		Integer code = codes.get(delimiter);
+		if (code != null)
+			return code;
+		return add(delimiter);
+	}
+
+	private synchronized int add(String delimiter) {
+		Integer code = codes.get(delimiter);
+		if (code != null)
+			return code;
+		if (size == delimiters.length) {
+			xml = Arrays.copyOf(xml, size * 2);
+			delimiters = Arrays.copyOf(delimiters, size * 2);
+		}
+		delimiters[size] = delimiter;
+		xml[size] = delimiter.replaceAll("&", "&amp;").replaceAll("<", "&lt;");
+		codes.put(delimiter, size);
+		return size++;
+	}
+
+	/**
+	 * Get the delimiter for a code.
+	 * @param code
+	 * @return
+	 */
+	public String get(int code) {
+		return delimiters[code];
+	}
+
+	/**
+	 * Get the delimiter for a code with &amp; and &lt; escaped for XML.
+	 * @param code
+	 * @return
+	 */
+	public String xml(int code) {
+		return xml[code];
+	}
+
+	/**
+	 * Number of distinct delimiters.
+	 * @return
+	 */
+	public synchronized int size() {
+		return size;
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+/**
+ * Finds runs of delimiters between token in a buffer of characters.
+ * Used by {@link TokenStream}, implemented by {@link DelimiterDfa} and
+ * for any regexp by {@link PatternDelimiterMatcher}.
+ *
+ * @author Omar Siam
+ *
+ */
+public interface DelimiterMatcher {
+
+	/**
+	 * There is no delimiter starting at the given position.
+	 */
+	public static final int NO_MATCH = -1;
+
+	/**
+	 * The delimiter may go on after the end of the buffer. Read more input and try again.
+	 */
+	public static final int NEED_INPUT = -2;
+
+	/**
+	 * Finds the first position where a delimiter may start. No delimiter may start
+	 * before it, whatever characters follow limit.
+	 * @param text
+	 * @param from
+	 * @param limit
+	 * @return
+	 * The position of the first candidate for a delimiter or limit if there is none.
+	 */
+	public int find(char[] text, int from, int limit);
+
+	/**
+	 * Matches a run of delimiters starting exactly at from.
+	 * @param text
+	 * @param from
+	 * @param limit
+	 * The end of the valid characters in text.
+	 * @param endOfInput
+	 * True if there won't be any more characters after limit.
+	 * @return
+	 * The end of the delimiter run, {@link #NO_MATCH} if there is no delimiter at from or
+	 * {@link #NEED_INPUT} if the run reaches limit and more input may change the result.
+	 */
+	public int matchAt(char[] text, int from, int limit, boolean endOfInput);
+}
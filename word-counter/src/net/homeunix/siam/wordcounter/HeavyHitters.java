@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package net.homeunix.siam.wordcounter;
+
+import java.util.Map;
+
+/**
+ * Counts only the words that may be among the most frequent ones (Space-Saving). At most capacity
+ * candidates are kept in the map, the one with the lowest count is on top of a heap. A word that
+ * isn't a candidate is looked up in a {@link CountMinSketch}, if it may have been found more often
+ * than that candidate it takes its place and inherits its count as {@link WordCounterData#error}.
+ * No word that isn't a candidate was found more often than the lowest count, every candidate
+ * was found at least as often as its counts say and at most error times more. The occurrences
+ * before a candidate was taken in are only in its error, the counts of its forms may be too low.
+ * Words that are joined with their variants after counting may be too low too, the variants that
+ * are not candidates are missing, see {@link #upperBound(CharSequence)}.
+ * Contexts of the candidates are copied before the {@link Run#TEXT log} is discarded,
+ * so memory doesn't grow with the length of the text, only with the number of distinct token.
+ *
+ * @author Omar Siam
+ *
+ */
+public final class HeavyHitters {
+
+	/**
+	 * Number of log items read between copying contexts and discarding the log.
+	 */
+	private static final int DISCARD_INTERVAL = 1 << 20;
+
+	private final Map<String, WordCounterData> candidates;
+
+	private final CountMinSketch sketch = new CountMinSketch();
+
+	/**
+	 * Min heap of the candidates by count and error.
+	 */
+	private final WordCounterData[] heap;
+
+	/**
+	 * The word of each candidate in the heap.
+	 */
+	private final String[] words;
+
+	private int size = 0;
+
+	private final int contextLength;
+
+	private int evictions = 0;
+
+	/**
+	 * No occurrence of any word was left out, all the words found are candidates.
+	 */
+	private boolean complete = true;
+
+	/**
+	 * @param candidates
+	 * The map the candidates are counted in, it should be empty.
+	 * @param capacity
+	 * Maximum number of candidates.
+	 * @param contextLength
+	 * The length of the contexts that are copied from the log.
+	 */
+	public HeavyHitters(Map<String, WordCounterData> candidates, int capacity, int contextLength) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("There has to be at least one candidate");
+		this.candidates = candidates;
+		this.heap = new WordCounterData[capacity];
+		this.words = new String[capacity];
+		this.contextLength = contextLength;
+	}
+
+	private static int estimate(WordCounterData data) {
+		return data.getCount() + data.error;
+	}
+
+	/**
+	 * Count one occurrence of a word that was found as form.
+	 * @param word
+	 * @param form
+	 * Id of the form in {@link Run#TOKENS}.
+	 * @param position
+	 */
+	public void count(String word, int form, long position) {
+		int estimate = sketch.add(word);
+		WordCounterData data = candidates.get(word);
+		if (data != null) {
+			data.inc(position, form);
+			siftDown(data.rank);
+			return;
+		}
+		if (size < heap.length) {
+			data = new WordCounterData(position, form);
+			set(size, word, data);
+			siftUp(size++);
+		} else {
+			int lowest = estimate(heap[0]);
+			complete = false;
+			if (estimate <= lowest)
+				// can't be more frequent than any candidate
+				return;
+			// its forms and counts are lost, only the error of the new candidate tells about them
+			candidates.remove(words[0]);
+			evictions++;
+			data = new WordCounterData(position, form);
+			data.error = lowest;
+			set(0, word, data);
+			siftDown(0);
+		}
+		candidates.put(word, data);
+	}
+
+	private void set(int i, String word, WordCounterData data) {
+		heap[i] = data;
+		words[i] = word;
+		data.rank = i;
+	}
+
+	private void siftUp(int i) {
+		WordCounterData data = heap[i];
+		String word = words[i];
+		int e = estimate(data);
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (estimate(heap[parent]) <= e)
+				break;
+			set(i, words[parent], heap[parent]);
+			i = parent;
+		}
+		set(i, word, data);
+	}
+
+	private void siftDown(int i) {
+		WordCounterData data = heap[i];
+		String word = words[i];
+		int e = estimate(data);
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && estimate(heap[child + 1]) < estimate(heap[child]))
+				child++;
+			if (estimate(heap[child]) >= e)
+				break;
+			set(i, words[child], heap[child]);
+			i = child;
+		}
+		set(i, word, data);
+	}
+
+	/**
+	 * Copy the contexts of the candidates that the log holds all of and discard the log
+	 * before the other ones. Only does something every {@link #DISCARD_INTERVAL} items.
+	 */
+	public void discardText() {
+		long horizon = Run.TEXT.size() - contextLength - 2;
+		if (horizon - Run.TEXT.start() < DISCARD_INTERVAL)
+			return;
+		for (int i = 0; i < size; i++)
+			for (WordCounterData.ContextData context: heap[i].contexts)
+				if (!context.isKept() && context.position <= horizon)
+					context.keep(contextLength);
+		Run.TEXT.discard(horizon - contextLength);
+	}
+
+	/**
+	 * The most times a word that isn't a candidate may have been found.
+	 * @param word
+	 * @return
+	 */
+	public int upperBound(CharSequence word) {
+		if (complete)
+			return 0;
+		return Math.min(sketch.estimate(word), lowest());
+	}
+
+	/**
+	 * The lowest count of a candidate. No word that isn't a candidate was found more often.
+	 * @return
+	 */
+	public int lowest() {
+		return size == 0 ? 0 : estimate(heap[0]);
+	}
+
+	/**
+	 * Number of candidates counted.
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Were all the words found kept as candidates, so all counts are exact.
+	 * @return
+	 */
+	public boolean complete() {
+		return complete;
+	}
+
+	public int evictions() {
+		return evictions;
+	}
+
+	public CountMinSketch sketch() {
+		return sketch;
+	}
+}
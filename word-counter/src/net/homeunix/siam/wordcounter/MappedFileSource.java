@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Input for the scanner that decodes a file straight from memory mapped segments of it.
+ * The page cache does the I/O, there is no reader with a buffer of its own in between.
+ * A mapping can't be bigger than Integer.MAX_VALUE bytes so bigger files are mapped
+ * one segment after the other. Positions in the file are longs.
+ *
+ * @author Omar Siam
+ *
+ */
+public class MappedFileSource implements Readable, Closeable {
+
+	/**
+	 * Default size of one mapped segment of the file.
+	 */
+	public static final int SEGMENT_SIZE = 1 << 28;
+
+	private final FileChannel channel;
+
+	private final long size;
+
+	private final int segmentSize;
+
+	private final CharsetDecoder decoder;
+
+	/**
+	 * The part of the file that is currently mapped.
+	 */
+	private MappedByteBuffer segment;
+
+	/**
+	 * Position of the mapped segment in the file.
+	 */
+	private long segmentStart;
+
+	private boolean flushed = false;
+
+	public MappedFileSource(Path path, Charset charset) throws IOException {
+		this(path, charset, SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param path
+	 * The file to read.
+	 * @param charset
+	 * Charset of the file. Malformed input is reported as an IOException.
+	 * @param segmentSize
+	 * Number of bytes mapped at once.
+	 * @throws IOException
+	 */
+	public MappedFileSource(Path path, Charset charset, int segmentSize) throws IOException {
+		if (segmentSize < 16)
+			throw new IllegalArgumentException("Segment size " + segmentSize + " is too small");
+		this.segmentSize = segmentSize;
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.size = channel.size();
+		map(0);
+	}
+
+	private void map(long start) throws IOException {
+		segmentStart = start;
+		segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+	}
+
+	/**
+	 * Size of the file in bytes.
+	 * @return
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Number of bytes decoded so far.
+	 * @return
+	 */
+	public long position() {
+		return segmentStart + segment.position();
+	}
+
+	/**
+	 * Decode as many characters as fit into cb. When a segment is used up the next one is
+	 * mapped starting with the bytes of a character that was split by the end of the segment.
+	 */
+	@Override
+	public int read(CharBuffer cb) throws IOException {
+		if (flushed)
+			return -1;
+		int start = cb.position();
+		while (cb.hasRemaining()) {
+			boolean last = segmentStart + segment.limit() == size;
+			CoderResult cr = decoder.decode(segment, cb, last);
+			if (cr.isError())
+				cr.throwException();
+			if (cr.isOverflow())
+				break;
+			if (!last) {
+				map(position());
+				continue;
+			}
+			if (decoder.flush(cb).isOverflow())
+				break;
+			flushed = true;
+			break;
+		}
+		int n = cb.position() - start;
+		return (n == 0 && flushed) ? -1 : n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+		segment = null;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package net.homeunix.siam.wordcounter;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.homeunix.siam.wordcounter.MasryConsts.AlloGraphEnd;
+import net.homeunix.siam.wordcounter.MasryConsts.IrregularJoin;
+import net.homeunix.siam.wordcounter.MasryConsts.PostFemininMarkers;
+import net.homeunix.siam.wordcounter.MasryConsts.PostFemininPluralMarkers;
+import net.homeunix.siam.wordcounter.MasryConsts.PostNonMarkers;
+import net.homeunix.siam.wordcounter.MasryConsts.PostNounMarkers;
+import net.homeunix.siam.wordcounter.MasryConsts.PostVerbMarkers;
+import net.homeunix.siam.wordcounter.MasryConsts.PreNonMarkers;
+import net.homeunix.siam.wordcounter.MasryConsts.PreNounMarkers;
+import net.homeunix.siam.wordcounter.MasryConsts.PreVerbMarkers;
+
+/**
+ * All the marker enums of {@link MasryConsts} packed into one long.
+ * Each enum gets a range of bits, the constant with ordinal i is the i-th bit of that range.
+ * Sets of markers are merged by or-ing them and tested by and-ing them with a {@link #mask(Class)}.
+ *
+ * @author Omar Siam
+ *
+ */
+public final class Markers {
+
+	/**
+	 * The enums in the order their bit ranges follow each other and they are printed in.
+	 */
+	private static final Class<?>[] GROUPS = {AlloGraphEnd.class, PostFemininMarkers.class, PostFemininPluralMarkers.class,
+		PreNounMarkers.class, PostNounMarkers.class, PreVerbMarkers.class, PostVerbMarkers.class, PreNonMarkers.class,
+		PostNonMarkers.class, IrregularJoin.class};
+
+	private static final int[] SHIFTS = new int[GROUPS.length + 1];
+
+	private static final Enum<?>[] CONSTANTS;
+
+	static {
+		for (int g = 0; g < GROUPS.length; g++)
+			SHIFTS[g + 1] = SHIFTS[g] + GROUPS[g].getEnumConstants().length;
+		if (SHIFTS[GROUPS.length] > Long.SIZE)
+			throw new AssertionError("More than " + Long.SIZE + " markers");
+		CONSTANTS = new Enum<?>[SHIFTS[GROUPS.length]];
+		for (int g = 0; g < GROUPS.length; g++)
+			for (Object e: GROUPS[g].getEnumConstants())
+				CONSTANTS[SHIFTS[g] + ((Enum<?>) e).ordinal()] = (Enum<?>) e;
+	}
+
+	/**
+	 * Rendered att strings by set of markers. There are only some hundred different ones.
+	 */
+	private static final ConcurrentHashMap<Long, String> names = new ConcurrentHashMap<Long, String>();
+
+	private Markers() {}
+
+	private static int group(Class<?> elementType) {
+		for (int g = 0; g < GROUPS.length; g++)
+			if (GROUPS[g] == elementType)
+				return g;
+		throw new IllegalArgumentException(elementType + " is not a marker enum");
+	}
+
+	/**
+	 * The bit of the first constant of an enum, the one with ordinal i is this shifted left by i.
+	 * @param elementType
+	 * @return
+	 */
+	public static long first(Class<? extends Enum<?>> elementType) {
+		return 1L << SHIFTS[group(elementType)];
+	}
+
+	/**
+	 * The bits of all the constants of an enum.
+	 * @param elementType
+	 * @return
+	 */
+	public static long mask(Class<? extends Enum<?>> elementType) {
+		int g = group(elementType);
+		return (-1L >>> (Long.SIZE - SHIFTS[g + 1] + SHIFTS[g])) << SHIFTS[g];
+	}
+
+	public static long bit(Enum<?> marker) {
+		return first(marker.getDeclaringClass()) << marker.ordinal();
+	}
+
+	/**
+	 * Each non empty enum range like an <code>EnumSet</code> prints it, "[A, B][C]".
+	 * @param markers
+	 * @return
+	 * The empty String if there are no markers.
+	 */
+	public static String toString(long markers) {
+		if (markers == 0)
+			return "";
+		Long key = markers;
+		String result = names.get(key);
+		if (result == null) {
+			StringBuilder sb = new StringBuilder();
+			for (int g = 0; g < GROUPS.length; g++) {
+				boolean any = false;
+				for (int i = SHIFTS[g]; i < SHIFTS[g + 1]; i++)
+					if ((markers & 1L << i) != 0) {
+						sb.append(any ? ", " : "[").append(CONSTANTS[i]);
+						any = true;
+					}
+				if (any)
+					sb.append(']');
+			}
+			result = sb.toString();
+			names.put(key, result);
+		}
+		return result;
+	}
+}
@@ -93,6 +93,8 @@ public class MasryConsts {
 	};
 	
 	public static final Pattern someArabicCharacters = Pattern.compile("[\\u0600-\\u06FF]+");
+	// The same as someArabicCharacters as a table the tokenizers look up each character in.
+	public static final WordClassifier arabicWords = WordClassifier.forCharClass(someArabicCharacters);
 	
 	public enum AlloGraphEnd {HAS_ALLOGRAPH_END_YA_ALIF_MAQSURA, HAS_ALLOGRAPH_END_H_TA_MARBUTA, HAS_ALLOGRAPH_ALIF_HAMZA, HAS_ALLOGRAPH_ALIF_HAMZA_BELOW, HAS_ALLOGRAPH_TATWEEL};
 	public enum PostFemininMarkers {POST_F_TI, POST_F_TAIK, POST_F_TU, POST_F_ITHA, POST_F_ITNA, POST_F_ITKUM, POST_F_ITHUM, POST_F_ANI, POST_F_AKAI, POST_F_AA, POST_F_AHA, POST_F_ANA, POST_F_AKUM, POST_F_AHUM};
@@ -109,10 +111,10 @@ public class MasryConsts {
 	public static final int CONTEXT_LENGTH = 15;	
 	
 	private static class PostfixFemininWord implements VaryWord {
-		public String varyWord(String inputWord, String afix) {
+		public ArabicKey varyWord(ArabicKey inputWord, String afix, ArabicKey result) {
 			if (!(inputWord.endsWith(MasryConsts.TA_MARBUTA)))
-				return "";
-			return inputWord.substring(0, inputWord.length() - 1) + afix;
+				return null;
+			return result.set(inputWord).dropLast().append(afix);
 		}
 
 		@Override
@@ -133,10 +135,10 @@ public class MasryConsts {
 	}
 	
 	private static class AllographEndYa implements VaryWord {
-		public String varyWord(String inputWord, String afix) {
+		public ArabicKey varyWord(ArabicKey inputWord, String afix, ArabicKey result) {
 			if ((afix != MasryConsts.ALIF_MAQSURA) || !(inputWord.endsWith(MasryConsts.YA)))
-				return "";
-			return inputWord.substring(0, inputWord.length() - 1) + afix;
+				return null;
+			return result.set(inputWord).dropLast().append(afix);
 		}
 
 		@Override
@@ -150,10 +152,10 @@ public class MasryConsts {
 	}
 	
 	private static class AllographEndHa implements VaryWord {
-		public String varyWord(String inputWord, String afix) {
+		public ArabicKey varyWord(ArabicKey inputWord, String afix, ArabicKey result) {
 			if ((afix != MasryConsts.TA_MARBUTA) || !(inputWord.endsWith(MasryConsts.H)))
-				return "";
-			return inputWord.substring(0, inputWord.length() - 1) + afix;
+				return null;
+			return result.set(inputWord).dropLast().append(afix);
 		}
 
 		@Override
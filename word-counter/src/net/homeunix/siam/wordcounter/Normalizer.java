@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package net.homeunix.siam.wordcounter;
+
+/**
+ * Folds the variants of a word into one form before it is counted. Every character is looked up
+ * in a 64K table that maps it to itself, to some other character or to nothing at all.
+ * The Arabic tables strip the tatweel and the harakat and may fold alif with hamza above or below
+ * into a plain alif, so these variants don't become entries of their own that have to be joined
+ * by passes over the whole map later. The token as found in the text is still counted as one
+ * of the forms of the word.
+ * Not thread safe, use a {@link #copy()} for each thread.
+ *
+ * @author Omar Siam
+ *
+ */
+public final class Normalizer {
+
+	/**
+	 * Table entry for characters that are removed.
+	 */
+	private static final char STRIP = '\uFFFF';
+
+	private final char[] table;
+
+	private final StringTable strings = new StringTable(1 << 12);
+
+	private final TokenView view = new TokenView();
+
+	private char[] folded = new char[64];
+
+	private Normalizer(char[] table) {
+		this.table = table;
+	}
+
+	/**
+	 * Normalizer for Arabic text.
+	 * @param foldAlif
+	 * Also fold alif with hamza above and alif with hamza below into alif.
+	 * @return
+	 */
+	public static Normalizer arabic(boolean foldAlif) {
+		char[] table = new char[Character.MAX_VALUE + 1];
+		for (int c = 0; c < table.length; c++)
+			table[c] = (char) c;
+		table[MasryConsts.TATWEEL.charAt(0)] = STRIP;
+		// fathatan to sukun and the superscript alif
+		for (char c = '\u064B'; c <= '\u0652'; c++)
+			table[c] = STRIP;
+		table['\u0670'] = STRIP;
+		if (foldAlif) {
+			table[MasryConsts.ALIF_HAMZA.charAt(0)] = MasryConsts.ALIF.charAt(0);
+			table[MasryConsts.ALIF_HAMZA_BELOW.charAt(0)] = MasryConsts.ALIF.charAt(0);
+		}
+		return new Normalizer(table);
+	}
+
+	/**
+	 * A normalizer using the same table with a state of its own.
+	 * @return
+	 */
+	public Normalizer copy() {
+		return new Normalizer(table);
+	}
+
+	/**
+	 * Get the normalized form of a token.
+	 * @param token
+	 * @return
+	 * token itself if nothing changes, else the same String for every token with this normalized form.
+	 * A token that consists of stripped characters only is not changed.
+	 */
+	public String normalize(String token) {
+		int length = token.length();
+		int i = 0;
+		while (i < length && table[token.charAt(i)] == token.charAt(i))
+			i++;
+		if (i == length)
+			return token;
+		if (folded.length < length)
+			folded = new char[Math.max(length, folded.length * 2)];
+		token.getChars(0, i, folded, 0);
+		int n = i;
+		for (; i < length; i++) {
+			char c = table[token.charAt(i)];
+			if (c != STRIP)
+				folded[n++] = c;
+		}
+		if (n == 0)
+			return token;
+		view.set(folded, 0, n, null);
+		return strings.get(view);
+	}
+}
@@ -0,0 +1,709 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import net.homeunix.siam.wordcounter.TokenAndType.TokenType;
+
+/**
+ * Counts the words of one big file using several threads.
+ * The file is split into byte ranges that start with a token (right after a run of delimiters).
+ * Every range is tokenized and counted on its own using a {@link Utf8Tokenizer}. A range reads
+ * on into the next one for the context after its last words. The first few words of a range need
+ * the context before it so they are counted when all the ranges are done, using the last token
+ * of the range before. Then the results are put together in the order of the ranges, two
+ * neighbouring ones at a time by the pool's threads.
+ * Counts, contexts and the order of the words are the same as if the file was read in one go.
+ * A corpus of several files is counted the same way, each file is a text of its own that
+ * contexts don't reach out of. The ranges of all the files are counted by a work stealing pool
+ * so a big file is split up and counted along with the small ones.
+ * A compressed file of a corpus can only be read from start to end, it is one range.
+ * Instead of a vocabulary for each range all the threads can count in one {@link ConcurrentVocabulary}.
+ * Positions are then numbers of the range and positions in it until the ranges are appended
+ * to the log, forms and words are put in the order they are first found in the log.
+ *
+ * @author Omar Siam
+ *
+ */
+public class ParallelCounter {
+
+	static final int CONTEXT_LENGTH = MasryConsts.CONTEXT_LENGTH;
+
+	/**
+	 * Position of the word counted in the context buffer before the next token is added.
+	 */
+	static final int MIDDLE = ((CONTEXT_LENGTH + 1) / 2) - 1;
+
+	/**
+	 * Number of token read before the first word of the text is counted.
+	 */
+	static final int PREFILL_TOKENS = (CONTEXT_LENGTH + 1) / 4;
+
+	/**
+	 * Number of words at the start of a range that need the end of the range before as context.
+	 */
+	static final int DEFERRED_TOKENS = (MIDDLE - 1) / 2;
+
+	/**
+	 * Number of token and delimiters at the end of a range needed as context for the next range.
+	 */
+	static final int TAIL_ITEMS = MIDDLE - 2;
+
+	/**
+	 * Number of token and delimiters at the start of a range read before counting starts.
+	 */
+	static final int HEAD_ITEMS = CONTEXT_LENGTH - (MIDDLE - 2 * DEFERRED_TOKENS);
+
+	/**
+	 * Ranges are not made smaller than this.
+	 */
+	public static final long MIN_CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * Number of ranges made for each thread if the files are big enough, so threads that are done
+	 * early can take over some of the work of the others.
+	 */
+	static final int CHUNKS_PER_THREAD = 4;
+
+	/**
+	 * Positions counted into a shared vocabulary have the number of the range in the bits above these.
+	 */
+	static final int POSITION_BITS = 40;
+
+	static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+
+	private final List<Path> files;
+
+	/**
+	 * Record the file each context was found in.
+	 */
+	private final boolean sources;
+
+	private final int threads;
+
+	private int overallTokenCount = 0;
+
+	private final List<String> messages = new ArrayList<String>();
+
+	private Normalizer normalizer;
+
+	private boolean shared = false;
+
+	/**
+	 * What is known about a range after it was counted.
+	 */
+	private static class Chunk {
+		Path file;
+		String source;
+		long start;
+		long end;
+		boolean first;
+		boolean last;
+		/**
+		 * Number of the range in all the ranges counted.
+		 */
+		int number;
+		/**
+		 * Position of the first item of the range in {@link Run#TEXT} once it is appended.
+		 */
+		long base;
+		Map<String, WordCounterData> wordCount;
+		List<TokenAndType> head = new ArrayList<TokenAndType>();
+		CircularBuffer<TokenAndType> tail = new CircularBuffer<TokenAndType>(TAIL_ITEMS);
+		/**
+		 * The own token and their delimiters, appended to {@link Run#TEXT} when merging.
+		 */
+		TokenLog log = new TokenLog();
+		List<String> messages = new ArrayList<String>();
+		/**
+		 * Messages about the first words of the range counted with the range before as context.
+		 */
+		List<String> deferredMessages = new ArrayList<String>();
+		Chunk previous;
+		Normalizer normalizer;
+		int ownTokens = 0;
+		int iterations = 0;
+		boolean tooSmall = false;
+		boolean compressed = false;
+		IOException error;
+	}
+
+	/**
+	 * Counts some of the ranges, splitting the work in two halves the pool's threads can steal.
+	 */
+	private class CountTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Chunk> chunks;
+
+		CountTask(List<Chunk> chunks) {
+			this.chunks = chunks;
+		}
+
+		@Override
+		protected void compute() {
+			if (chunks.size() == 1) {
+				Chunk c = chunks.get(0);
+				try {
+					count(c);
+				} catch (IOException e) {
+					c.error = e;
+				}
+				return;
+			}
+			int middle = chunks.size() / 2;
+			invokeAll(new CountTask(chunks.subList(0, middle)), new CountTask(chunks.subList(middle, chunks.size())));
+		}
+	}
+
+	public ParallelCounter(Path file, int threads) {
+		this(Collections.singletonList(file), threads, false);
+	}
+
+	/**
+	 * Count the words of several files. The contexts record the file they were found in.
+	 * @param files
+	 * @param threads
+	 */
+	public ParallelCounter(List<Path> files, int threads) {
+		this(files, threads, true);
+	}
+
+	private ParallelCounter(List<Path> files, int threads, boolean sources) {
+		this.files = files;
+		this.threads = threads;
+		this.sources = sources;
+	}
+
+	/**
+	 * Count words in their normalized form.
+	 * @param normalizer
+	 * Null to count them as they are.
+	 */
+	public void useNormalizer(Normalizer normalizer) {
+		this.normalizer = normalizer;
+	}
+
+	/**
+	 * Count into one table shared by all the threads instead of a vocabulary for each range.
+	 * @param shared
+	 */
+	public void useSharedVocabulary(boolean shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * Number of token and delimiters processed the same way Run counts them.
+	 * @return
+	 */
+	public int getOverallTokenCount() {
+		return overallTokenCount;
+	}
+
+	/**
+	 * Comments about tokenization problems in the order they were found in the text.
+	 * @return
+	 */
+	public List<String> getMessages() {
+		return messages;
+	}
+
+	/**
+	 * Count the words of the files.
+	 * @param wordCount
+	 * Gets the words in the order they are first found in the text.
+	 * @throws IOException
+	 */
+	public void count(Map<String, WordCounterData> wordCount) throws IOException {
+		long total = 0;
+		for (Path file: files)
+			total += Files.size(file);
+		long chunkSize = Math.max(MIN_CHUNK_SIZE, total / ((long) threads * CHUNKS_PER_THREAD));
+		int[] splits = new int[files.size()];
+		List<List<Chunk>> perFile = new ArrayList<List<Chunk>>();
+		for (int i = 0; i < files.size(); i++) {
+			splits[i] = (int) Math.min(threads * CHUNKS_PER_THREAD, Files.size(files.get(i)) / chunkSize);
+			perFile.add(split(files.get(i), splits[i]));
+		}
+		ConcurrentVocabulary table = shared ? new ConcurrentVocabulary() : null;
+		List<Chunk> all = number(perFile, table);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			count(pool, all);
+			// Some range of a file has so few token that it doesn't make sense to split it.
+			List<Chunk> again = new ArrayList<Chunk>();
+			for (int i = 0; i < perFile.size(); i++)
+				for (Chunk c: perFile.get(i))
+					if (c.tooSmall) {
+						splits[i] = 1;
+						perFile.set(i, split(files.get(i), 1));
+						again.addAll(perFile.get(i));
+						break;
+					}
+			if (shared && !again.isEmpty()) {
+				// The other ranges are in the table already, count all of them again.
+				table.clear();
+				for (int i = 0; i < perFile.size(); i++)
+					perFile.set(i, split(files.get(i), splits[i]));
+				again = all = number(perFile, table);
+			} else
+				all = number(perFile, table);
+			count(pool, again);
+			if (shared)
+				merge(perFile, all, table, wordCount);
+			else
+				merge(perFile, all, pool, wordCount);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Number the ranges of all files one after the other.
+	 * @param perFile
+	 * @param table
+	 * The table they are all counted in or null if each one gets a vocabulary of its own.
+	 * @return
+	 * All the ranges.
+	 */
+	private static List<Chunk> number(List<List<Chunk>> perFile, ConcurrentVocabulary table) {
+		List<Chunk> all = new ArrayList<Chunk>();
+		for (List<Chunk> chunks: perFile)
+			for (Chunk c: chunks) {
+				c.number = all.size();
+				if (c.wordCount == null)
+					c.wordCount = table != null ? table : new Vocabulary();
+				all.add(c);
+			}
+		return all;
+	}
+
+	private void count(ForkJoinPool pool, List<Chunk> chunks) throws IOException {
+		if (chunks.isEmpty())
+			return;
+		pool.invoke(new CountTask(chunks));
+		for (Chunk c: chunks)
+			if (c.error != null)
+				throw c.error;
+	}
+
+	private List<Chunk> split(Path file, int chunks) throws IOException {
+		List<Chunk> result = new ArrayList<Chunk>();
+		String source = sources ? file.toString() : null;
+		if (sources && PrefetchingSource.isGzip(file)) {
+			Chunk c = new Chunk();
+			c.file = file;
+			c.source = source;
+			c.first = c.last = true;
+			c.compressed = true;
+			result.add(c);
+			return result;
+		}
+		long start = 0;
+		if (chunks > 1) {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				long size = channel.size();
+				for (int i = 1; i <= chunks && start < size; i++) {
+					long end = i == chunks ? size : alignToToken(channel, size * i / chunks);
+					if (end <= start)
+						continue;
+					Chunk c = new Chunk();
+					c.file = file;
+					c.source = source;
+					c.start = start;
+					c.end = end;
+					c.first = start == 0;
+					result.add(c);
+					start = end;
+				}
+			}
+		} else if (Files.size(file) > 0) {
+			Chunk c = new Chunk();
+			c.file = file;
+			c.source = source;
+			c.end = Files.size(file);
+			c.first = true;
+			result.add(c);
+		}
+		if (result.isEmpty()) {
+			Chunk c = new Chunk();
+			c.file = file;
+			c.source = source;
+			c.first = true;
+			result.add(c);
+		}
+		result.get(result.size() - 1).last = true;
+		return result;
+	}
+
+	/**
+	 * Find the start of the first token after the first run of delimiters at or after position.
+	 * @param channel
+	 * @param position
+	 * @return
+	 * @throws IOException
+	 */
+	static long alignToToken(FileChannel channel, long position) throws IOException {
+		long size = channel.size();
+		DelimiterDfa dfa = Run.SEPARATOR_UTF8_DFA;
+		for (long window = 1 << 16; ; window *= 2) {
+			long length = Math.min(window, size - position);
+			boolean endOfInput = position + length == size;
+			ByteBuffer text = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			int limit = text.limit();
+			int p = 0;
+			// Don't start in the middle of a character.
+			while (p < limit && (text.get(p) & 0xC0) == 0x80)
+				p++;
+			int end = DelimiterDfa.NEED_INPUT;
+			while ((p = dfa.find(text, p, limit)) < limit) {
+				end = dfa.matchAt(text, p, limit, endOfInput);
+				if (end != DelimiterDfa.NO_MATCH)
+					break;
+				p++;
+			}
+			if (end >= 0)
+				return position + end;
+			if (endOfInput)
+				return size;
+		}
+	}
+
+	private static TokenAndType nextItem(TokenSource t, Chunk c, List<TokenAndType> delimiter) {
+		// Only ranges that are not the last one of a file are read with a Utf8Tokenizer.
+		boolean own = c.last || ((Utf8Tokenizer) t).tokenPosition() < c.end;
+		String token = t.next();
+		TokenAndType tt = new TokenAndType(token, t.lastTokenType());
+		tt.code = Run.TOKENS.id(token, tt.type);
+		TokenAndType d = new TokenAndType(t.lastDelimiter(), t.lastDelimiterCode());
+		delimiter.add(d);
+		if (own) {
+			c.ownTokens++;
+			c.tail.add(tt);
+			c.tail.add(d);
+			c.log.append(WordCounterData.tokenItem(tt.code));
+			c.log.append(d.code);
+		}
+		return tt;
+	}
+
+	/**
+	 * Count the words of one range. A compressed file is one range that is inflated
+	 * from start to end.
+	 */
+	private void count(Chunk c) throws IOException {
+		if (c.compressed) {
+			TokenStream stream = new TokenStream(PrefetchingSource.open(c.file, Charset.forName("UTF-8")), Run.SEPARATOR_DFA);
+			stream.useDelimiterDictionary(Run.DELIMITERS);
+			try {
+				count(stream, c);
+			} finally {
+				stream.close();
+			}
+			if (stream.ioException() != null)
+				throw stream.ioException();
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(c.file, StandardOpenOption.READ)) {
+			Utf8Tokenizer t = new Utf8Tokenizer(channel, c.start, Long.MAX_VALUE, Run.SEPARATOR_UTF8_DFA,
+					new Utf8StringTable(), Utf8Tokenizer.SEGMENT_SIZE);
+			t.useDelimiterDictionary(Run.DELIMITERS);
+			count(t, c);
+			if (t.ioException() != null)
+				throw t.ioException();
+		}
+	}
+
+	/**
+	 * Works like the loop in Run.
+	 */
+	private void count(TokenSource t, Chunk c) {
+		CircularBuffer<TokenAndType> context = new CircularBuffer<TokenAndType>(CONTEXT_LENGTH);
+		List<TokenAndType> delimiter = new ArrayList<TokenAndType>(1);
+		if (normalizer != null)
+			c.normalizer = normalizer.copy();
+		int tokens;
+		if (c.first) {
+			context.add(new TokenAndType("at the beginning", TokenType.UNKNOWN));
+			for (int i = 0; i < MIDDLE - 1; i++)
+				context.add(new TokenAndType(">", TokenAndType.TokenType.UNKNOWN));
+			tokens = PREFILL_TOKENS;
+		} else {
+			// never seen, it is pushed out before the first word is counted
+			context.add(new TokenAndType("", TokenType.UNKNOWN));
+			tokens = HEAD_ITEMS / 2;
+		}
+		for (int i = 0; i < tokens; i++) {
+			if (!t.hasNext()) {
+				if (c.first && c.last && sources) {
+					// One short file of a corpus doesn't stop counting the others.
+					c.messages.add("<comment>" + xml(c.source) + " has less than " + ((CONTEXT_LENGTH + 1) / 2) + " words, it is not counted.</comment>");
+					return;
+				}
+				if (c.first && c.last)
+					throw new IllegalArgumentException("Text has to have at least " + ((CONTEXT_LENGTH + 1) / 2) + " words");
+				c.tooSmall = true;
+				return;
+			}
+			delimiter.clear();
+			TokenAndType tt = nextItem(t, c, delimiter);
+			context.add(tt);
+			context.add(delimiter.get(0));
+			if (!c.first) {
+				c.head.add(tt);
+				c.head.add(delimiter.get(0));
+			}
+		}
+		// number of the token that is counted next
+		int j = c.first ? 0 : DEFERRED_TOKENS;
+		// its position in the log of the range
+		long position = 2 * j;
+		if (shared)
+			position |= (long) c.number << POSITION_BITS;
+		while (true) {
+			TokenAndType tt = context.get(MIDDLE);
+			long ttPosition = position;
+			// The words after the range are counted by the next one.
+			if (!c.last && j >= c.ownTokens)
+				break;
+			if (t.hasNext()) {
+				delimiter.clear();
+				context.add(nextItem(t, c, delimiter));
+				context.add(delimiter.get(0));
+				position += 2;
+			} else if (c.last) {
+				// process the last tokens
+				context.remove();
+				position++;
+			} else {
+				// the next range has too few token
+				c.tooSmall = true;
+				return;
+			}
+			if (tt == null)
+				break;
+			c.iterations++;
+			j++;
+			count(tt, ttPosition, context, c.wordCount, c.messages, c.normalizer, c.source);
+		}
+		if (!(c.first && c.last) && c.ownTokens <= HEAD_ITEMS / 2)
+			c.tooSmall = true;
+	}
+
+	private static String xml(String s) {
+		return s.replaceAll("&", "&amp;").replaceAll("<", "&lt;");
+	}
+
+	private static void count(TokenAndType tt, long position, CircularBuffer<TokenAndType> context, Map<String, WordCounterData> wordCount,
+			List<String> messages, Normalizer normalizer, String source) {
+		// There shouldn't be any empty strings left as tokens!
+		if (tt.token.equals("")) {
+			messages.add(Run.tokenizationProblem(context));
+			return;
+		}
+		// below here we are concerned with real words only
+		if (tt.type != TokenType.WORD)
+			return;
+		String word = normalizer != null ? normalizer.normalize(tt.token) : tt.token;
+		if (wordCount instanceof ConcurrentVocabulary)
+			((ConcurrentVocabulary) wordCount).count(word, tt.code, position, source);
+		else
+			WordCounterData.count(wordCount, word, tt.code, position, source);
+	}
+
+	/**
+	 * Count the first words of a range with the end of the one before as context.
+	 * @param c
+	 * @param base
+	 * Position of the first word.
+	 * @param wordCount
+	 */
+	private static void countDeferred(Chunk c, long base, Map<String, WordCounterData> wordCount) {
+		List<TokenAndType> items = new ArrayList<TokenAndType>();
+		for (TokenAndType tt: c.previous.tail)
+			items.add(tt);
+		items.addAll(c.head);
+		for (int j = 0; j < DEFERRED_TOKENS; j++) {
+			CircularBuffer<TokenAndType> context = new CircularBuffer<TokenAndType>(CONTEXT_LENGTH);
+			for (int i = 0; i < CONTEXT_LENGTH; i++)
+				context.add(items.get(2 * j + i));
+			count(items.get(TAIL_ITEMS + 2 * j), base + 2 * j, context, wordCount, c.deferredMessages, c.normalizer, c.source);
+		}
+	}
+
+	/**
+	 * Append the ranges to the log in order, each file ends a text.
+	 * Then take the messages and number of token of each range.
+	 * @param perFile
+	 */
+	private void append(List<List<Chunk>> perFile) {
+		for (List<Chunk> chunks: perFile) {
+			Chunk previous = null;
+			for (Chunk c: chunks) {
+				c.base = Run.TEXT.append(c.log);
+				c.previous = previous;
+				overallTokenCount += c.iterations;
+				if (!c.first)
+					overallTokenCount += DEFERRED_TOKENS;
+				previous = c;
+			}
+			Run.TEXT.endText();
+		}
+	}
+
+	/**
+	 * Puts the words of neighbouring ranges together, the words and forms of the first one come first.
+	 */
+	private static class MergeTask extends RecursiveTask<Map<String, WordCounterData>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Chunk> chunks;
+
+		MergeTask(List<Chunk> chunks) {
+			this.chunks = chunks;
+		}
+
+		@Override
+		protected Map<String, WordCounterData> compute() {
+			if (chunks.size() == 1)
+				return words(chunks.get(0));
+			int middle = chunks.size() / 2;
+			MergeTask first = new MergeTask(chunks.subList(0, middle));
+			first.fork();
+			Map<String, WordCounterData> second = new MergeTask(chunks.subList(middle, chunks.size())).compute();
+			Map<String, WordCounterData> result = first.join();
+			for (Map.Entry<String, WordCounterData> entry: second.entrySet()) {
+				WordCounterData data = result.get(entry.getKey());
+				if (data != null)
+					data.addOccurrences(entry.getValue());
+				else
+					result.put(entry.getKey(), entry.getValue());
+			}
+			return result;
+		}
+
+		/**
+		 * The words of one range, the first ones counted with the range before as context,
+		 * at their positions in the log.
+		 */
+		private static Map<String, WordCounterData> words(Chunk c) {
+			Map<String, WordCounterData> result = c.wordCount;
+			if (!c.first) {
+				result = new Vocabulary();
+				countDeferred(c, 0, result);
+				for (Map.Entry<String, WordCounterData> entry: c.wordCount.entrySet()) {
+					WordCounterData data = result.get(entry.getKey());
+					if (data != null)
+						data.addOccurrences(entry.getValue());
+					else
+						result.put(entry.getKey(), entry.getValue());
+				}
+			}
+			for (WordCounterData data: result.values())
+				data.moveContexts(c.base);
+			return result;
+		}
+	}
+
+	private void merge(List<List<Chunk>> perFile, List<Chunk> all, ForkJoinPool pool, Map<String, WordCounterData> wordCount) {
+		append(perFile);
+		Map<String, WordCounterData> words = pool.invoke(new MergeTask(all));
+		for (Chunk c: all) {
+			messages.addAll(c.deferredMessages);
+			messages.addAll(c.messages);
+		}
+		for (Map.Entry<String, WordCounterData> entry: words.entrySet()) {
+			WordCounterData data = wordCount.get(entry.getKey());
+			if (data != null)
+				data.addOccurrences(entry.getValue());
+			else
+				wordCount.put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Append the ranges counted into a shared table to the log and move the words to wordCount
+	 * in the order they are first found in the log, each with its forms in that order too.
+	 * @param perFile
+	 * @param all
+	 * @param table
+	 * @param wordCount
+	 */
+	private void merge(List<List<Chunk>> perFile, List<Chunk> all, ConcurrentVocabulary table, Map<String, WordCounterData> wordCount) {
+		append(perFile);
+		for (Chunk c: all) {
+			if (!c.first)
+				countDeferred(c, (long) c.number << POSITION_BITS, table);
+			messages.addAll(c.deferredMessages);
+			messages.addAll(c.messages);
+		}
+		for (WordCounterData data: table.values())
+			for (WordCounterData.ContextData context: data.contexts)
+				context.position = all.get((int) (context.position >>> POSITION_BITS)).base + (context.position & POSITION_MASK);
+		// every form gets the rank of its first occurrence
+		int[] rank = new int[2 * Run.TOKENS.size()];
+		Arrays.fill(rank, Integer.MAX_VALUE);
+		int next = 0;
+		List<WordCounterData> ordered = new ArrayList<WordCounterData>();
+		for (Chunk c: all) {
+			// a file too short to count
+			if (c.first && c.iterations == 0)
+				continue;
+			for (long p = c.base; p < c.base + c.log.size(); p++) {
+				int item = Run.TEXT.get(p);
+				if (item >= TokenLog.TEXT_END)
+					continue;
+				int id = WordCounterData.tokenId(item);
+				if (!TokenDictionary.isWord(id) || rank[id] != Integer.MAX_VALUE)
+					continue;
+				rank[id] = next++;
+				String token = Run.TOKENS.get(id);
+				String word = normalizer != null ? normalizer.normalize(token) : token;
+				WordCounterData data = table.remove(word);
+				if (data != null) {
+					wordCount.put(word, data);
+					ordered.add(data);
+				}
+			}
+		}
+		assert(table.size() == 0);
+		for (WordCounterData data: ordered)
+			data.orderForms(rank);
+	}
+}
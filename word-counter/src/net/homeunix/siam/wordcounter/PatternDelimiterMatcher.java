@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+import java.nio.CharBuffer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds delimiters using a regexp like {@link Run#SEPARATOR_PATTERN}. Much slower than
+ * a {@link DelimiterDfa} but any regexp can be used.
+ * A regexp can't tell where a delimiter may start that is only recognized with more input,
+ * so the last {@link #LOOKAHEAD} characters before the end of the buffer are all candidates.
+ *
+ * @author Omar Siam
+ *
+ */
+public class PatternDelimiterMatcher implements DelimiterMatcher {
+
+	/**
+	 * Number of characters a delimiter may need after its start to be recognized.
+	 */
+	public static final int LOOKAHEAD = 16;
+
+	private final Pattern pattern;
+
+	private char[] text;
+
+	private Matcher matcher;
+
+	public PatternDelimiterMatcher(Pattern pattern) {
+		this.pattern = pattern;
+	}
+
+	private Matcher matcher(char[] text, int from, int limit) {
+		if (text != this.text) {
+			this.text = text;
+			matcher = pattern.matcher(CharBuffer.wrap(text));
+			// Opaque bounds: lookaheads must not see the stale characters after limit.
+			matcher.useAnchoringBounds(false);
+		}
+		matcher.region(from, limit);
+		return matcher;
+	}
+
+	@Override
+	public int find(char[] text, int from, int limit) {
+		int candidates = Math.max(from, limit - LOOKAHEAD);
+		Matcher m = matcher(text, from, limit);
+		while (m.find()) {
+			// Zero length matches are no delimiters
+			if (m.end() > m.start())
+				return Math.min(m.start(), candidates);
+		}
+		return candidates;
+	}
+
+	@Override
+	public int matchAt(char[] text, int from, int limit, boolean endOfInput) {
+		Matcher m = matcher(text, from, limit);
+		if (!m.lookingAt()) {
+			if (m.hitEnd() && !endOfInput)
+				return NEED_INPUT;
+			return NO_MATCH;
+		}
+		if (m.hitEnd() && !endOfInput)
+			return NEED_INPUT;
+		return m.end() > from ? m.end() : NO_MATCH;
+	}
+}
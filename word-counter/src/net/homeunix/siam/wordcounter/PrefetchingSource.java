@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Input for the scanner that reads and decodes ahead in a thread of its own.
+ * There are two blocks, each a direct byte buffer the channel is read into and the characters
+ * decoded from it. While the scanner works on one of them the reader thread fills the other one,
+ * so reading from slow (for example network mounted) storage, decoding and scanning overlap.
+ * The size of a block follows the rate the scanner consumes characters at: it is enough for about
+ * {@link #TARGET_MILLIS} ms of scanning.
+ * Files compressed using gzip are inflated by the reader thread too, see {@link #open(Path, Charset)}.
+ *
+ * @author Omar Siam
+ *
+ */
+public class PrefetchingSource implements Readable, Closeable {
+
+	public static final int MIN_BLOCK_SIZE = 1 << 16;
+
+	public static final int MAX_BLOCK_SIZE = 1 << 24;
+
+	/**
+	 * Time the scanner should need for one block.
+	 */
+	public static final int TARGET_MILLIS = 50;
+
+	/**
+	 * Size of the buffer for the compressed bytes.
+	 */
+	public static final int GZIP_BUFFER_SIZE = 1 << 16;
+
+	private static class Block {
+		ByteBuffer bytes;
+		CharBuffer chars;
+		boolean last = false;
+		IOException exception;
+		Block(int size) {
+			allocate(size);
+		}
+		void allocate(int size) {
+			bytes = ByteBuffer.allocateDirect(size);
+			chars = CharBuffer.allocate(size);
+		}
+	}
+
+	private final ReadableByteChannel channel;
+
+	private final CharsetDecoder decoder;
+
+	private final BlockingQueue<Block> filled = new ArrayBlockingQueue<Block>(2);
+
+	private final BlockingQueue<Block> free = new ArrayBlockingQueue<Block>(2);
+
+	private final Thread reader;
+
+	/**
+	 * The block the scanner reads from.
+	 */
+	private Block current;
+
+	private long currentTaken;
+
+	/**
+	 * Block size the reader should use next, set by the scanner's thread.
+	 */
+	private volatile int blockSize = 1 << 20;
+
+	private boolean done = false;
+
+	public PrefetchingSource(ReadableByteChannel channel, Charset charset) {
+		this.channel = channel;
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		free.add(new Block(blockSize));
+		free.add(new Block(blockSize));
+		reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readAhead();
+			}
+		}, "prefetch");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Open a file that may be compressed using gzip. The file is inflated while it is read.
+	 * @param path
+	 * @param charset
+	 * Charset of the (uncompressed) text.
+	 * @return
+	 * @throws IOException
+	 */
+	public static PrefetchingSource open(Path path, Charset charset) throws IOException {
+		if (isGzip(path))
+			return new PrefetchingSource(Channels.newChannel(new GZIPInputStream(Files.newInputStream(path), GZIP_BUFFER_SIZE)), charset);
+		return new PrefetchingSource(FileChannel.open(path, StandardOpenOption.READ), charset);
+	}
+
+	/**
+	 * Does the file start like a gzip file.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isGzip(Path path) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return in.read() == 0x1F && in.read() == 0x8B;
+		}
+	}
+
+	private void readAhead() {
+		ByteBuffer leftOver = null;
+		try {
+			while (true) {
+				Block b = free.take();
+				int size = blockSize;
+				if (b.bytes.capacity() != size)
+					b.allocate(size);
+				b.bytes.clear();
+				b.chars.clear();
+				// Bytes of a character split by the end of the last block go first
+				if (leftOver != null && leftOver.hasRemaining())
+					b.bytes.put(leftOver);
+				try {
+					int n = 0;
+					while (b.bytes.hasRemaining() && (n = channel.read(b.bytes)) >= 0)
+						;
+					b.last = n < 0;
+					b.bytes.flip();
+					CoderResult cr = decoder.decode(b.bytes, b.chars, b.last);
+					if (cr.isError())
+						cr.throwException();
+					if (b.last)
+						decoder.flush(b.chars);
+				} catch (IOException ioe) {
+					b.exception = ioe;
+					b.last = true;
+				}
+				b.chars.flip();
+				leftOver = b.bytes.hasRemaining() ? copy(leftOver, b.bytes) : null;
+				filled.put(b);
+				if (b.last)
+					return;
+			}
+		} catch (InterruptedException ie) {
+			// closed
+		}
+	}
+
+	private static ByteBuffer copy(ByteBuffer to, ByteBuffer from) {
+		if (to == null || to.capacity() < from.remaining())
+			to = ByteBuffer.allocate(Math.max(16, from.remaining()));
+		to.clear();
+		to.put(from);
+		to.flip();
+		return to;
+	}
+
+	/**
+	 * Copy as many decoded characters as fit into cb. Only waits for the reader thread
+	 * if the current block is used up and the next one isn't ready.
+	 */
+	@Override
+	public int read(CharBuffer cb) throws IOException {
+		int start = cb.position();
+		while (cb.hasRemaining()) {
+			if (current == null || !current.chars.hasRemaining()) {
+				if (current != null) {
+					if (current.exception != null)
+						throw current.exception;
+					if (current.last) {
+						done = true;
+						break;
+					}
+					adaptBlockSize();
+					free.add(current);
+					current = null;
+				}
+				// Don't wait if there is something already
+				if (cb.position() > start && filled.isEmpty())
+					break;
+				try {
+					current = filled.take();
+				} catch (InterruptedException ie) {
+					throw new InterruptedIOException();
+				}
+				currentTaken = System.nanoTime();
+			}
+			CharBuffer chars = current.chars;
+			if (chars.remaining() <= cb.remaining())
+				cb.put(chars);
+			else {
+				int limit = chars.limit();
+				chars.limit(chars.position() + cb.remaining());
+				cb.put(chars);
+				chars.limit(limit);
+			}
+		}
+		int n = cb.position() - start;
+		return (n == 0 && done) ? -1 : n;
+	}
+
+	/**
+	 * Size the next blocks so the scanner needs about TARGET_MILLIS for one of them.
+	 */
+	private void adaptBlockSize() {
+		long nanos = Math.max(1, System.nanoTime() - currentTaken);
+		long rate = current.chars.limit() * 1000000000L / nanos;
+		long size = rate * TARGET_MILLIS / 1000;
+		blockSize = Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, Integer.highestOneBit((int) Math.min(size, Integer.MAX_VALUE))));
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.interrupt();
+		channel.close();
+	}
+}
@@ -25,6 +25,7 @@ package net.homeunix.siam.wordcounter;
  * This program will try to consider the similarity of arabic words as best as possible.
  */
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -34,23 +35,21 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Random;
+import java.util.Set;
 import java.util.TreeMap;
-import java.util.regex.Pattern;
 
 import org.plyjy.factory.PySystemObjectFactory;
 
 import net.homeunix.siam.stemmer.StemmerI;
-import net.homeunix.siam.wordcounter.MasryConsts.IrregularJoin;
 import net.homeunix.siam.wordcounter.TokenAndType;
 import net.homeunix.siam.wordcounter.Run.CollectRemovals.VaryWord;
 import net.homeunix.siam.wordcounter.TokenAndType.TokenType;
@@ -73,12 +72,39 @@ public class Run {
 	
 	static final int CONTEXT_LENGTH = MasryConsts.CONTEXT_LENGTH;
 	static final String SEPARATOR_PATTERN = "[) ]?(?:(?:&lt)|(?:&gt)|(?:&amp)|(?:[,.%](?!\\d))|[-\\u06D4\\u2013\\u2014=|()\\{\\}\\[\\]<>\\u27E8\\u27E9'\\u2018\\u2019\"\\u00ab\\u00bb\\u2039\\u203A\\u201c\\u201d#&/*\\u2022;:?\\u061F!\\u060C\\s\\u200F\\u202E\\u202C\\u200D])+";
+	// The same delimiters as in SEPARATOR_PATTERN compiled into an automaton.
+	// The regexp's \\s is [ \\t\\n\\x0B\\f\\r], the optional [) ]? is covered by the characters.
+	static final String SEPARATOR_CHARS = "-\u06D4\u2013\u2014=|(){}[]<>\u27E8\u27E9'\u2018\u2019\"\u00ab\u00bb\u2039\u203A\u201c\u201d#&/*\u2022;:?\u061F!\u060C \t\n\u000B\f\r\u200F\u202E\u202C\u200D";
+	static final String SEPARATOR_NOT_BEFORE_DIGIT_CHARS = ",.%";
+	static final String[] SEPARATOR_SEQUENCES = {"&lt", "&gt", "&amp"};
+	static final DelimiterDfa SEPARATOR_DFA = DelimiterDfa.compile(SEPARATOR_CHARS, SEPARATOR_NOT_BEFORE_DIGIT_CHARS, SEPARATOR_SEQUENCES);
+	static final DelimiterDfa SEPARATOR_UTF8_DFA = DelimiterDfa.compileUtf8(SEPARATOR_CHARS, SEPARATOR_NOT_BEFORE_DIGIT_CHARS, SEPARATOR_SEQUENCES);
+	// The delimiters found so far, the contexts only keep their codes.
+	static final DelimiterDictionary DELIMITERS = new DelimiterDictionary();
+
+	// All the words and other token found, contexts store their ids.
+	static final TokenDictionary TOKENS = new TokenDictionary();
+
+	// The items of the text, contexts are positions in it.
+	static final TokenLog TEXT = new TokenLog();
+	/**
+	 * Words counted by --approximate for each of the x most frequent token.
+	 */
+	static final int APPROXIMATE_CANDIDATES = 20;
 	static final String UKNOWN_PATTERN = "";
 	
 	public static class CollectRemovals {
 		public int skipShorterThan = 3;
 		public Map<String, String> toRemove = new HashMap<String, String>();
 		private Map<String, WordCounterData> wordCount;
+		/**
+		 * Tells how often variants that weren't kept may have been found if words were counted approximately.
+		 */
+		private HeavyHitters heavyHitters;
+		/**
+		 * The words that were kept, before any of them are joined.
+		 */
+		private Set<String> kept;
 		
 		public CollectRemovals(Map<String, WordCounterData> wordCount) {
 			this.wordCount = wordCount;
@@ -114,7 +140,15 @@ public class Run {
 		
 		public interface VaryWord {
 			public String[] getStopWords(String afix);
-			public String varyWord(String inputWord, String afix);
+			/**
+			 * Put the variant of inputWord with afix into result.
+			 * @param inputWord
+			 * @param afix
+			 * @param result
+			 * @return
+			 * result or null if there is no such variant.
+			 */
+			public ArabicKey varyWord(ArabicKey inputWord, String afix, ArabicKey result);
 		}
 		
 		public class PrefixWord implements VaryWord {
@@ -123,8 +157,8 @@ public class Run {
 	    	PrefixWord(Map<String, String[]> stopWords) {
 	    		this.stopWords = stopWords;
 	    	}
-	    	public String varyWord(String inputWord, String afix) {
-				return afix + inputWord;
+	    	public ArabicKey varyWord(ArabicKey inputWord, String afix, ArabicKey result) {
+				return result.set(afix).append(inputWord);
 			}
 
 			@Override
@@ -144,8 +178,8 @@ public class Run {
 	    		this.stopWords = stopWords;
 	    	}
 	    	
-			public String varyWord(String inputWord, String afix) {
-				return inputWord.replace(MasryConsts.ALIF_MAQSURA, MasryConsts.YA) + afix;
+			public ArabicKey varyWord(ArabicKey inputWord, String afix, ArabicKey result) {
+				return result.set(inputWord).replace(MasryConsts.ALIF_MAQSURA.charAt(0), MasryConsts.YA.charAt(0)).append(afix);
 			}
 
 			@Override
@@ -161,13 +195,10 @@ public class Run {
 		
 
 		private class AllographAlif implements VaryWord {
-			public String varyWord(String inputWord, String replaceAlifHamza) {
-				if (!(replaceAlifHamza == MasryConsts.ALIF_HAMZA || replaceAlifHamza == MasryConsts.ALIF_HAMZA_BELOW) || !(inputWord.contains(MasryConsts.ALIF_HAMZA) || inputWord.contains(MasryConsts.ALIF_HAMZA_BELOW)))
-					return "";
-				String result = inputWord.replace(replaceAlifHamza, MasryConsts.ALIF);
-				if (result.equals(inputWord))
-					return "";
-				return result;
+			public ArabicKey varyWord(ArabicKey inputWord, String replaceAlifHamza, ArabicKey result) {
+				if (!(replaceAlifHamza == MasryConsts.ALIF_HAMZA || replaceAlifHamza == MasryConsts.ALIF_HAMZA_BELOW) || !inputWord.contains(replaceAlifHamza.charAt(0)))
+					return null;
+				return result.set(inputWord).replace(replaceAlifHamza.charAt(0), MasryConsts.ALIF.charAt(0));
 			}
 
 			@Override
@@ -185,10 +216,10 @@ public class Run {
 		}
 		
 		private class AllographEndTatweel implements VaryWord {
-			public String varyWord(String inputWord, String afix) {
+			public ArabicKey varyWord(ArabicKey inputWord, String afix, ArabicKey result) {
 				if ((afix != MasryConsts.TATWEEL))
-					return "";
-				return inputWord + afix;
+					return null;
+				return result.set(inputWord).append(afix);
 			}
 
 			@Override
@@ -212,10 +243,10 @@ public class Run {
 //		}
 
 		private class FemininRegularPlurals implements VaryWord {
-			public String varyWord(String inputWord, String afix) {
+			public ArabicKey varyWord(ArabicKey inputWord, String afix, ArabicKey result) {
 				if (!(inputWord.endsWith(MasryConsts.TA_MARBUTA)))
-					return "";
-				return inputWord.substring(0, inputWord.length() - 1) + afix;
+					return null;
+				return result.set(inputWord).dropLast().append(afix);
 			}
 
 			@Override
@@ -244,56 +275,144 @@ public class Run {
 		
 		public Map<String, String> joinMap;
 		
-		@SuppressWarnings("unchecked")
-		public <E extends Enum<E> > void collect(Map.Entry<String, WordCounterData> entry, String[] afixes, VaryWord vary, EnumSet<E> markers, Class<E> elementType) {
-			String word = entry.getKey();
+		/**
+		 * The word collect looks at and its variants, reused for every one of them.
+		 */
+		private final ArabicKey key = new ArabicKey();
+		private final ArabicKey variant = new ArabicKey();
+		
+		/**
+		 * The words were counted approximately, variants that are not among them add to the
+		 * {@link WordCounterData#missing} occurrences of the word they would be joined with.
+		 * @param heavyHitters
+		 */
+		public void useHeavyHitters(HeavyHitters heavyHitters) {
+			this.heavyHitters = heavyHitters;
+			if (heavyHitters == null)
+				return;
+			kept = new HashSet<String>(wordCount.keySet());
+		}
+		
+		/**
+		 * The afixes and variations collect was called with so far.
+		 */
+		private final List<String[]> afixesUsed = new ArrayList<String[]>();
+		private final List<VaryWord> variesUsed = new ArrayList<VaryWord>();
+		
+		/**
+		 * The most occurrences a word may bring to the word it is joined with if it wasn't kept.
+		 * A word that was kept brings none, its occurrences are in its own entry or in the one it was
+		 * joined with, those lost when it was replaced are in the error.
+		 * Without the words that were kept it may have been joined with its own variants, so they are
+		 * looked for using all the afixes and variations used so far.
+		 * @param word
+		 * @param seen
+		 * The words looked at already.
+		 * @return
+		 */
+		private int missing(ArabicKey word, Set<String> seen) {
+			String s = word.toString();
+			if (!seen.add(s))
+				return 0;
+			if (kept.contains(s))
+				return 0;
+			int bound = heavyHitters.upperBound(word);
+			// a word that was never found has no variants joined with it
+			if (bound == 0)
+				return 0;
+			ArabicKey variant = new ArabicKey();
+			for (int r = 0; r < variesUsed.size(); r++)
+				for (String afix: afixesUsed.get(r)) {
+					ArabicKey word2 = variesUsed.get(r).varyWord(word, afix, variant);
+					if (word2 != null)
+						bound += missing(word2, seen);
+				}
+			return bound;
+		}
+		
+		/**
+		 * The data of the word an entry was joined with or its own.
+		 */
+		private WordCounterData entryData(Map.Entry<String, WordCounterData> entry, String word) {
 			WordCounterData data = entry.getValue();
-			int equivalentEnum = -1;
-			for (int i = 0; i < data.allEnums.length + 1; i++) {
-				equivalentEnum = i;
-				if (markers == data.allEnums[i])
-					break;
+			if (data.counts[0] == 0) {
+				while (toRemove.containsKey(word))
+					word = toRemove.get(word);
+				data = wordCount.get(word);
 			}
-			assert(equivalentEnum < data.allEnums.length);
+			return data;
+		}
+		
+		private WordCounterData get(ArabicKey word) {
+			if (wordCount instanceof Vocabulary)
+				return ((Vocabulary) wordCount).get(word);
+			return wordCount.get(word.toString());
+		}
+		
+		public <E extends Enum<E> > void collect(Map.Entry<String, WordCounterData> entry, String[] afixes, VaryWord vary, Class<E> elementType) {
+			String word = entry.getKey();
+			WordCounterData data = entry.getValue();
+			long first = Markers.first(elementType);
 			if (word.length() < skipShorterThan && !word.equals("ل") && !word.equals("ب"))
 				return;
 			String[] stopWords = null;
+			key.set(word);
+			Set<String> seen = null;
+			if (heavyHitters != null) {
+				if (!variesUsed.contains(vary) || afixesUsed.get(variesUsed.indexOf(vary)) != afixes) {
+					afixesUsed.add(afixes);
+					variesUsed.add(vary);
+				}
+				seen = new HashSet<String>();
+				seen.add(word);
+			}
         	for (int i = 0; i < afixes.length; i++) {
         		word = entry.getKey();
     			stopWords = vary.getStopWords(afixes[i]);
-        		String word2 = vary.varyWord(word, afixes[i]);
         		if (stopWords != null && Arrays.binarySearch(stopWords, word) > -1)
         			continue;
-        		if (word2 != "") {
-        			WordCounterData data2 = wordCount.get(word2);
+        		ArabicKey word2 = vary.varyWord(key, afixes[i], variant);
+        		if (word2 != null) {
+        			WordCounterData data2 = get(word2);
         			if (data2 != null) {
-        				if (data2.counts[0] == 0)
+        				if (data2.counts[0] == 0) {
         					// already taken by some other combination
+        					if (heavyHitters != null)
+        						entryData(entry, word).missing += missing(word2, seen);
         					continue;
+        				}
         				data = entry.getValue(); 
         				if (data.counts[0] == 0) {
         					while (toRemove.containsKey(word))
         						word = toRemove.get(word);
         					data = wordCount.get(word);
-        					markers = data.allEnums[equivalentEnum];
         				}
         				data.add(data2);
-        				markers.add(elementType.getEnumConstants()[i]);
+        				data.markers |= first << i;
 //        				assert(Run.originalWordCount == WordCounterData.getCount(wordCount));
-        				toRemove.put(word2, word);
-        			}
+        				toRemove.put(word2.toString(), word);
+        			} else if (heavyHitters != null)
+        				entryData(entry, word).missing += missing(word2, seen);
         		}
         	}
 		}
 		
 		public <E extends Enum<E> > void collectIrregular(Map.Entry<String, WordCounterData> entry, Map<String, String> join, Class<E> elementType) {
 			String word = entry.getKey();
+			if (heavyHitters != null) {
+				// the words joined with this one that weren't kept
+				Set<String> seen = new HashSet<String>();
+				seen.add(word);
+				for (Map.Entry<String, String> irregular: join.entrySet())
+					if (irregular.getValue().equals(word) && (!wordCount.containsKey(irregular.getKey()) || wordCount.get(irregular.getKey()).counts[0] == 0))
+						entry.getValue().missing += missing(new ArabicKey().set(irregular.getKey()), seen);
+			}
 			String joinTo = join.get(word);
 			if (null != joinTo) {
     			WordCounterData dataJoinTo = wordCount.get(joinTo);
     			if (dataJoinTo != null) {
     				dataJoinTo.add(entry.getValue());
-    				dataJoinTo.irregularJoin.add((IrregularJoin) elementType.getEnumConstants()[0]);
+    				dataJoinTo.markers |= Markers.first(elementType);
     				toRemove.put(word, joinTo);
     	            assert(originalWordCount == WordCounterData.getCount(wordCount));
     			}				
@@ -311,36 +430,303 @@ public class Run {
 //	}
 	
 	
+	private static void printHeader(String fileName) {
+        System.out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        System.out.println("<tokenlist xmlns=\"http://www.siam.homeunix.net/tokenlist\">");
+        System.out.println("<comment>Processing text in " + fileName + " using separator pattern " + SEPARATOR_PATTERN.replaceAll("&",  "&amp;").replaceAll("<", "&lt;").replaceAll(">",  "&gt;") + "</comment>");
+	}
+
+	/**
+	 * The comment written if an empty token was found.
+	 * @param context
+	 * The token and delimiters around it.
+	 * @return
+	 */
+	static String tokenizationProblem(Iterable<TokenAndType> context) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<comment>There is a tokenization problem. Check regexp against the following part of the input:");
+		sb.append(lineSeparator);
+		sb.append("\u0640(");
+		for (TokenAndType oldWord: context)
+			sb.append(oldWord.token);
+		sb.append(" )\u0640</comment>");
+		return sb.toString();
+	}
+
+	/**
+	 * Add a token to the context and to TEXT. The TokenAndType that drops out of the full context
+	 * is reused, the contexts kept by WordCounterData are positions in TEXT.
+	 * @param context
+	 * @param token
+	 * @param type
+	 * @param code
+	 * Code of the delimiter in DELIMITERS or id of the token in TOKENS.
+	 */
+	private static void addToContext(CircularBuffer<TokenAndType> context, String token, TokenType type, int code) {
+		TokenAndType tt = context.overwritten();
+		if (tt == null)
+			tt = new TokenAndType(token, type);
+		tt.token = token;
+		tt.type = type;
+		tt.code = code;
+		context.add(tt);
+		if (type == TokenType.DELIMITER)
+			TEXT.append(code != DelimiterDictionary.NONE ? code : DELIMITERS.code(token));
+		else
+			TEXT.append(WordCounterData.tokenItem(code));
+	}
+
+	/**
+	 * Count the words read from s one after the other.
+	 * @param s
+	 * @param wordCount
+	 * @param fileName
+	 * @param normalizer
+	 * Words are counted in their normalized form if not null.
+	 * @param checkpoint
+	 * Where to save the state of counting from time to time or null.
+	 * @param resume
+	 * Go on from the checkpoint instead of starting at the beginning of the text.
+	 * @param heavyHitters
+	 * Only count the words that may be the most frequent ones using it or null to count all of them.
+	 * @param wiki
+	 * The dump s reads if the articles of the token are to be recorded, else null.
+	 * @return
+	 * The number of token processed.
+	 * @throws IOException
+	 */
+	private static int countSerial(TokenSource s, Map<String, WordCounterData> wordCount, String fileName, Normalizer normalizer,
+			Checkpoint checkpoint, boolean resume, HeavyHitters heavyHitters, WikiDumpSource wiki) throws IOException {
+        // create a circular buffer that contains a 7 word context of the current word.
+        CircularBuffer<TokenAndType> context = new CircularBuffer<TokenAndType>(CONTEXT_LENGTH);
+        // comments printed while counting, they are printed again when resuming
+        List<String> messages = new ArrayList<String>();
+        int start = 0;
+        if (resume) {
+        	start = checkpoint.restore(wordCount, context, messages);
+        	if (WordCounterData.keeper != null)
+        		WordCounterData.keeper.sampled(wordCount);
+        } else {
+	        // the current word should be in the middle of the buffer (at position position 3 for CONTEXT_LENGTH 7)
+	        context.add(new TokenAndType("at the beginning", TokenType.UNKNOWN));
+	        for (int i = 0; i < ((CONTEXT_LENGTH + 1) / 2) - 2; i++)
+	        	context.add(new TokenAndType(">", TokenAndType.TokenType.UNKNOWN));
+	        int cprep = 0;
+	        while(true) {
+	        	if (!s.hasNext())
+	        		throw new IllegalArgumentException("Text has to have at least " + ((CONTEXT_LENGTH + 1) / 2) + " words");
+	        	String token = s.next();
+	        	if (wiki != null)
+	        		wiki.logged(TEXT.size(), ((TokenStream) s).tokenOffset());
+	        	addToContext(context, token, s.lastTokenType(), TOKENS.id(token, s.lastTokenType()));
+	        	cprep++;
+	        	addToContext(context, s.lastDelimiter(), TokenType.DELIMITER, s.lastDelimiterCode());
+	        	if (cprep++ == ((CONTEXT_LENGTH + 1) / 2) - 1)
+	        		break;
+	        }
+        }
+        
+        printHeader(fileName);
+        for (String message: messages)
+        	System.out.println(message);
+        
+        // the buffer is prefilled so now process the whole text (or some number of words plus delimiters)
+        int overallTokenCount = 0;
+        // position in TEXT of the word in the middle of the buffer, the newest item in the buffer is the last one in TEXT
+        long position = TEXT.size() - 1 + (CONTEXT_LENGTH + 1) / 2;
+        for (TokenAndType item: context)
+        	position--;
+        TokenAndType tt;
+        String token;
+        // for (int i = 0; i < 6000000; i++)
+        for (int i = start; true; i++)
+        {
+        	if (checkpoint != null && i > start && checkpoint.due(i))
+        		checkpoint.save(i, wordCount, context, messages);
+        	// The word which shall be counted is in the middle of the context buffer.
+        	tt = context.get(((CONTEXT_LENGTH + 1) / 2) - 1);
+        	long ttPosition = position;
+        	if (s.hasNext()) {
+        		token = s.next();
+        		if (wiki != null)
+        			wiki.logged(TEXT.size(), ((TokenStream) s).tokenOffset());
+        		addToContext(context, token, s.lastTokenType(), TOKENS.id(token, s.lastTokenType()));
+        		addToContext(context, s.lastDelimiter(), TokenType.DELIMITER, s.lastDelimiterCode());
+        		position += 2;
+        	}
+        	else { // process the last tokens
+        		context.remove();
+        		position++;
+        	}
+            if (tt == null) {
+    			System.out.println("<comment>Processed " + i + " token and their delimiters.</comment>");
+    			overallTokenCount = i;
+        		break;
+            }            	
+        	// There shouldn't be any empty strings left as tokens!
+        	if (tt.token.equals("")) {
+        		String message = tokenizationProblem(context);
+        		System.out.println(message);
+        		messages.add(message);
+        		continue;
+        	}
+        	// below here we are concerned with real words only
+        	if (tt.type != TokenType.WORD)
+        		continue;
+        	if (heavyHitters != null) {
+        		heavyHitters.count(normalizer != null ? normalizer.normalize(tt.token) : tt.token, tt.code, ttPosition);
+        		heavyHitters.discardText();
+        	} else if (normalizer != null)
+        		WordCounterData.count(wordCount, normalizer.normalize(tt.token), tt.code, ttPosition);
+        	else
+        		WordCounterData.count(wordCount, tt.token, tt.code, ttPosition);
+        	if (WordCounterData.keeper != null)
+        		WordCounterData.keeper.discardText(checkpoint != null ? checkpoint.logged() : Long.MAX_VALUE);
+        }
+        return overallTokenCount;
+	}
+
 	/**
 	 * Old style procedural program.
 	 * Open the file passed in args. Use a scanner to read it word by word and count them.
 	 * @param args
-	 * On argument: The file to process.
+	 * Options starting with -- then the file to process, the number of token and the number of samples.
 	 */
 	public static void main(String[] args) {
+		Map<String, String> options = new HashMap<String, String>();
+		int firstArg = 0;
+		while (firstArg < args.length && args[firstArg].startsWith("--")) {
+			String[] option = args[firstArg++].split("=", 2);
+			options.put(option[0], option.length > 1 ? option[1] : "");
+		}
+		args = Arrays.copyOfRange(args, firstArg, args.length);
 		if (args.length < 3) {
 			System.out.println("Usage: " + lineSeparator +
-					"  java -jar word-counter.jar <Text-File> <x most frequent token> <max number of samples per token>." + lineSeparator +
-					"  The output of this program is in XML format.");
+					"  java -jar word-counter.jar [options] <Text-File> <x most frequent token> <max number of samples per token>." + lineSeparator +
+					"  The output of this program is in XML format." + lineSeparator +
+					"  <Text-File> may also be a directory, a glob pattern like corpus/**.txt or a list of these" + lineSeparator +
+					"  separated by " + File.pathSeparator + ". Then every file is a text of its own and the samples tell" + lineSeparator +
+					"  which file they are from. The files are counted using --threads (default 1) threads." + lineSeparator +
+					"Options:" + lineSeparator +
+					"  --mmap       Read the text file using memory mapped segments of it." + lineSeparator +
+					"  --prefetch   Read and decode the text file ahead in a thread of its own." + lineSeparator +
+					"  --wiki       The text file is a MediaWiki XML dump, only the text of the articles is read." + lineSeparator +
+					"               The samples tell the page id of the article they are from." + lineSeparator +
+					"  --utf8       Tokenize the UTF-8 encoded bytes of the memory mapped text file," + lineSeparator +
+					"               each distinct token is only decoded once." + lineSeparator +
+					"  --threads=N  Count N parts of the UTF-8 encoded text file in parallel." + lineSeparator +
+					"  --shared     The threads count into one table of words instead of one for each part." + lineSeparator +
+					"  --checkpoint=FILE" + lineSeparator +
+					"               Save the state of counting to FILE every " + Checkpoint.INTERVAL + " token." + lineSeparator +
+					"  --checkpoint-interval=N" + lineSeparator +
+					"               Save it every N token instead." + lineSeparator +
+					"  --resume     Go on from the state in the --checkpoint FILE, the output is the same" + lineSeparator +
+					"               as if the run had not been interrupted." + lineSeparator +
+					"  --normalize  Count words without tatweel and harakat, the forms found are listed." + lineSeparator +
+					"  --normalize=alif" + lineSeparator +
+					"               Also count alif with hamza above or below as alif." + lineSeparator +
+					"  --context=N  Write samples of N token and delimiters (default " + CONTEXT_LENGTH + ") around the word." + lineSeparator +
+					"  --reservoir  Only keep a random sample of as many contexts per form as samples are written" + lineSeparator +
+					"               while counting. If the text file is counted by one thread memory doesn't grow" + lineSeparator +
+					"               with the size of the text." + lineSeparator +
+					"  --approximate[=K]" + lineSeparator +
+					"               Only count K (default " + APPROXIMATE_CANDIDATES + " times x) words that may be among the" + lineSeparator +
+					"               most frequent. Counts may be too high or too low, each token tells by how much." + lineSeparator +
+					"               Implies --reservoir, the text file is counted by one thread." + lineSeparator +
+					"Text files compressed using gzip are inflated while they are read, --mmap, --utf8" + lineSeparator +
+					"and --threads don't apply to them. They don't apply to checkpoints either." + lineSeparator +
+					"A corpus can't be counted with --checkpoint or --resume.");
 			System.exit(0);
 		}
-		Path readFile = Paths.get(args[0]);
-        ScannerWithDelimiterAccess s = null;
+		boolean corpus = Corpus.isCorpus(args[0]);
+		Path readFile = corpus ? null : Paths.get(args[0]);
+        TokenSource s = null;
         
         int xMostFrequentToken = Integer.parseInt(args[1]);
         int numberOfSamplesPerToken = Integer.parseInt(args[2]);
+        int contextLength = options.containsKey("--context") ? Integer.parseInt(options.get("--context")) : CONTEXT_LENGTH;
+        if (contextLength < 5)
+        	throw new IllegalArgumentException("--context has to be at least 5");
+        boolean approximate = options.containsKey("--approximate");
+        if (approximate && (corpus || options.containsKey("--checkpoint")))
+        	throw new IllegalArgumentException("--approximate counts one text file without checkpoints");
+        if (corpus && (options.containsKey("--checkpoint") || options.containsKey("--resume")))
+        	throw new IllegalArgumentException("--checkpoint and --resume count one text file, not a corpus");
+        if (options.containsKey("--reservoir") || approximate)
+        	// Only as many contexts as could be written are kept for each form.
+        	WordCounterData.samples = Math.max(1, numberOfSamplesPerToken);
 
         try {
-        	// Open the file using the Scanner class, use UTF-8 as charset.
-            s = new ScannerWithDelimiterAccess(Files.newBufferedReader(readFile, Charset.forName("UTF-8")));
-            // Set what delimiters between words look like.
-            // Delimiters may start with a closing bracket or a space.
-            // After that there may be one or more entities &amp; or &gt; 
-            // There are one or more full stops or commas, but only if they are not preceded by a digit.
-            // There are one or more dashes, quotation marks, also arabic ones, parentheses, slashes, stars, colons, semicolons or ampersands
-            // and Arabic varieties of these as well as spaces and left-to-right-markers.
-            s.useDelimiter(Pattern.compile(SEPARATOR_PATTERN));
-            Map<String, WordCounterData> wordCount = new LinkedHashMap<String, WordCounterData>(128000);
+            Map<String, WordCounterData> wordCount = new Vocabulary(128000);
+            int overallTokenCount;
+            int threads = options.containsKey("--threads") ? Integer.parseInt(options.get("--threads")) : 1;
+            // Compressed files can only be read from start to end.
+            boolean compressed = !corpus && PrefetchingSource.isGzip(readFile);
+            WikiDumpSource wiki = null;
+            Normalizer normalizer = null;
+            if (options.containsKey("--normalize"))
+            	normalizer = Normalizer.arabic(options.get("--normalize").equals("alif"));
+            // Checkpoints need to know where in the text the serial count is.
+            boolean checkpoints = options.containsKey("--checkpoint");
+            HeavyHitters heavyHitters = null;
+            if (approximate)
+            	heavyHitters = new HeavyHitters(wordCount, options.get("--approximate").isEmpty() ?
+            			Math.max(1, APPROXIMATE_CANDIDATES * xMostFrequentToken) : Integer.parseInt(options.get("--approximate")), contextLength);
+            if (corpus || (threads > 1 && !compressed && !options.containsKey("--wiki") && !checkpoints && !approximate)) {
+            	// Parts of the file are tokenized and counted by threads of their own and the results are merged.
+            	printHeader(args[0]);
+            	ParallelCounter counter = corpus ? new ParallelCounter(Corpus.list(args[0]), threads) : new ParallelCounter(readFile, threads);
+            	counter.useNormalizer(normalizer);
+            	counter.useSharedVocabulary(options.containsKey("--shared"));
+            	counter.count(wordCount);
+            	for (String message: counter.getMessages())
+            		System.out.println(message);
+            	overallTokenCount = counter.getOverallTokenCount();
+            	System.out.println("<comment>Processed " + overallTokenCount + " token and their delimiters.</comment>");
+            } else {
+            	// Set what delimiters between words look like.
+            	// Delimiters may start with a closing bracket or a space.
+            	// After that there may be one or more entities &amp; or &gt; 
+            	// There are one or more full stops or commas, but only if they are not preceded by a digit.
+            	// There are one or more dashes, quotation marks, also arabic ones, parentheses, slashes, stars, colons, semicolons or ampersands
+            	// and Arabic varieties of these as well as spaces and left-to-right-markers.
+            	// They are compiled into an automaton that does the same as SEPARATOR_PATTERN but faster.
+            	Checkpoint checkpoint = null;
+            	if (options.containsKey("--utf8") && !compressed && !options.containsKey("--wiki") && !checkpoints) {
+            		Utf8Tokenizer tokenizer = new Utf8Tokenizer(readFile, SEPARATOR_UTF8_DFA);
+            		tokenizer.useDelimiterDictionary(DELIMITERS);
+            		s = tokenizer;
+            	} else {
+            		Readable text;
+            		if (options.containsKey("--wiki"))
+            			// Only the text of the articles is counted.
+            			text = wiki = new WikiDumpSource(readFile);
+            		else if (compressed || options.containsKey("--prefetch"))
+            			text = PrefetchingSource.open(readFile, Charset.forName("UTF-8"));
+            		else if (options.containsKey("--mmap"))
+            			text = new MappedFileSource(readFile, Charset.forName("UTF-8"));
+            		else
+            			// Open the file as UTF-8.
+            			text = Files.newBufferedReader(readFile, Charset.forName("UTF-8"));
+            		// The stream makes each distinct token and delimiter a String only once.
+            		TokenStream stream = new TokenStream(text, SEPARATOR_DFA);
+            		stream.useDelimiterDictionary(DELIMITERS);
+            		s = stream;
+            		if (checkpoints) {
+            			int interval = options.containsKey("--checkpoint-interval") ?
+            					Integer.parseInt(options.get("--checkpoint-interval")) : Checkpoint.INTERVAL;
+            			checkpoint = new Checkpoint(Paths.get(options.get("--checkpoint")), interval, stream);
+            			checkpoint.usePages(wiki);
+            		}
+            	}
+            	if (WordCounterData.samples > 0 && heavyHitters == null)
+            		// Only the sampled contexts are copied, the log of the text is discarded.
+            		WordCounterData.keeper = new SampleKeeper(contextLength);
+            	overallTokenCount = countSerial(s, wordCount, args[0], normalizer, checkpoint,
+            			checkpoint != null && options.containsKey("--resume") && checkpoint.exists(), heavyHitters, wiki);
+            	if (wiki != null)
+            		System.out.println("<comment>Read " + wiki.pages() + " articles.</comment>");
+            }
             
 //            while (s.hasNext()) {
 //                System.out.println(s.next());
@@ -350,77 +736,6 @@ public class Run {
 //            	s.next();
 //            }
             	
-            // create a circular buffer that contains a 7 word context of the current word.
-            CircularBuffer<TokenAndType> context = new CircularBuffer<TokenAndType>(CONTEXT_LENGTH);
-            // the current word should be in the middle of the buffer (at position position 3 for CONTEXT_LENGTH 7)
-            context.add(new TokenAndType("at the beginning", TokenType.UNKNOWN));
-            for (int i = 0; i < ((CONTEXT_LENGTH + 1) / 2) - 2; i++)
-            	context.add(new TokenAndType(">", TokenAndType.TokenType.UNKNOWN));
-            int cprep = 0;
-            while(true) {
-            	if (!s.hasNext())
-            		throw new IllegalArgumentException("Text has to have at least " + ((CONTEXT_LENGTH + 1) / 2) + " words");
-            	String token = s.next();
-        		if (!MasryConsts.someArabicCharacters.matcher(token).find()) 
-        			context.add(new TokenAndType(token, TokenType.UNKNOWN));
-        		else 
-        			context.add(new TokenAndType(token, TokenType.WORD));
-            	cprep++;
-            	context.add(new TokenAndType(s.lastDelimiter(), TokenType.DELIMITER));
-            	if (cprep++ == ((CONTEXT_LENGTH + 1) / 2) - 1)
-            		break;
-            }
-            
-            System.out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-            System.out.println("<tokenlist xmlns=\"http://www.siam.homeunix.net/tokenlist\">");
-            System.out.println("<comment>Processing text in " + args[0] + " using separator pattern " + SEPARATOR_PATTERN.replaceAll("&",  "&amp;").replaceAll("<", "&lt;").replaceAll(">",  "&gt;") + "</comment>");
-            // the buffer is prefilled so now process the whole text (or some number of words plus delimiters)
-            int overallTokenCount = 0;
-            TokenAndType tt;
-            String token;
-            // for (int i = 0; i < 6000000; i++)
-            for (int i = 0; true; i++)
-            {
-            	// The word which shall be counted is in the middle of the context buffer.
-            	tt = context.get(((CONTEXT_LENGTH + 1) / 2) - 1);
-            	if (s.hasNext()) {
-            		token = s.next();
-            		if (!MasryConsts.someArabicCharacters.matcher(token).find()) 
-            			context.add(new TokenAndType(token, TokenType.UNKNOWN));
-            		else 
-            			context.add(new TokenAndType(token, TokenType.WORD));
-            		context.add(new TokenAndType(s.lastDelimiter(), TokenType.DELIMITER));            		
-            	}
-            	else // process the last tokens
-            		context.remove();
-                if (tt == null) {
-        			System.out.println("<comment>Processed " + i + " token and their delimiters.</comment>");
-        			overallTokenCount = i;
-            		break;
-                }            	
-            	// There shouldn't be any empty strings left as tokens!
-            	if (tt.token.equals("")) {
-            		System.out.println("<comment>There is a tokenization problem. Check regexp against the following part of the input:");
-            		System.out.print("\u0640(");
-            		for (TokenAndType oldWord: context)
-            			System.out.print(oldWord.token);
-            		System.out.println(" )\u0640</comment>");
-            		continue;
-            	}
-            	// below here we are concerned with real words only
-            	if (tt.type != TokenType.WORD)
-            		continue;
-            	// Primitive types such as Integer are passed by value.
-            	// We need a reference so use an array of Integer of length 1.
-            	// Try to get the current count of this word.
-            	WordCounterData data = wordCount.get(tt.token);
-            	// If there this word was already counted increase,
-            	if (data != null)
-            		data.inc(context);
-            	// else add the word with a count of 1.
-            	else 
-            		wordCount.put(tt.token, new WordCounterData(context, tt.token));
-            }
             
 //            StemmerI isri = isriFactory.createObject();
 //            for (Map.Entry<String, WordCounterData> entry: wordCount.entrySet()) {
@@ -428,12 +743,13 @@ public class Run {
 //            }
 
             CollectRemovals removals = new CollectRemovals(wordCount);
+            removals.useHeavyHitters(heavyHitters);
             // Order does matter! TODO: How?
             removals.skipShorterThan = 2;
             originalWordCount = WordCounterData.getCount(wordCount, true);
 
             for (Map.Entry<String, WordCounterData> entry: wordCount.entrySet()) {
-            	removals.collect(entry, MasryConsts.masry_feminin_plural_postfixes, removals.femininRegularPlurals, entry.getValue().postFemininPluralMakrersFound, MasryConsts.PostFemininPluralMarkers.class);
+            	removals.collect(entry, MasryConsts.masry_feminin_plural_postfixes, removals.femininRegularPlurals, MasryConsts.PostFemininPluralMarkers.class);
             }
             
             for (String s1: removals.toRemove.keySet())
@@ -442,7 +758,7 @@ public class Run {
             assert(originalWordCount == WordCounterData.getCount(wordCount, true));
 
             for (Map.Entry<String, WordCounterData> entry: wordCount.entrySet()) {
-            	removals.collect(entry, MasryConsts.masry_feminin_postfixes, MasryConsts.postfixFemininWord, entry.getValue().postFemininMakrersFound, MasryConsts.PostFemininMarkers.class);
+            	removals.collect(entry, MasryConsts.masry_feminin_postfixes, MasryConsts.postfixFemininWord, MasryConsts.PostFemininMarkers.class);
             }
             
             for (String s1: removals.toRemove.keySet())
@@ -452,9 +768,9 @@ public class Run {
 
             removals.skipShorterThan = 0;
             for (Map.Entry<String, WordCounterData> entry: wordCount.entrySet()) {
-            	removals.collect(entry, MasryConsts.masry_allograph, removals.allographEndTatweel, entry.getValue().alloGraphFound, MasryConsts.AlloGraphEnd.class);
-            	removals.collect(entry, MasryConsts.masry_allograph, MasryConsts.allographEndYa, entry.getValue().alloGraphFound, MasryConsts.AlloGraphEnd.class);
-            	removals.collect(entry, MasryConsts.masry_allograph, MasryConsts.allographEndHa, entry.getValue().alloGraphFound, MasryConsts.AlloGraphEnd.class);
+            	removals.collect(entry, MasryConsts.masry_allograph, removals.allographEndTatweel, MasryConsts.AlloGraphEnd.class);
+            	removals.collect(entry, MasryConsts.masry_allograph, MasryConsts.allographEndYa, MasryConsts.AlloGraphEnd.class);
+            	removals.collect(entry, MasryConsts.masry_allograph, MasryConsts.allographEndHa, MasryConsts.AlloGraphEnd.class);
             }
             
             for (String s1: removals.toRemove.keySet())
@@ -463,8 +779,8 @@ public class Run {
             assert(originalWordCount == WordCounterData.getCount(wordCount, true));
             
             for (Map.Entry<String, WordCounterData> entry: wordCount.entrySet()) {
-            	removals.collect(entry, MasryConsts.masry_allograph, removals.allographAlifHamza, entry.getValue().alloGraphFound, MasryConsts.AlloGraphEnd.class);
-            	removals.collect(entry, MasryConsts.masry_allograph, removals.allographAlifHamzaBelow, entry.getValue().alloGraphFound, MasryConsts.AlloGraphEnd.class);
+            	removals.collect(entry, MasryConsts.masry_allograph, removals.allographAlifHamza, MasryConsts.AlloGraphEnd.class);
+            	removals.collect(entry, MasryConsts.masry_allograph, removals.allographAlifHamzaBelow, MasryConsts.AlloGraphEnd.class);
             }
             
             for (String s1: removals.toRemove.keySet())
@@ -475,8 +791,8 @@ public class Run {
             removals.skipShorterThan = 2;
 
             for (Map.Entry<String, WordCounterData> entry: wordCount.entrySet()) {
-            	removals.collect(entry, MasryConsts.masry_prefixes_indet, removals.prefixWordIndet, entry.getValue().preNonMarkersFound, MasryConsts.PreNonMarkers.class);
-            	removals.collect(entry, MasryConsts.masry_postfixes_indet, removals.postfixWordIndet, entry.getValue().postNonMarkersFound, MasryConsts.PostNonMarkers.class);
+            	removals.collect(entry, MasryConsts.masry_prefixes_indet, removals.prefixWordIndet, MasryConsts.PreNonMarkers.class);
+            	removals.collect(entry, MasryConsts.masry_postfixes_indet, removals.postfixWordIndet, MasryConsts.PostNonMarkers.class);
             }
 
             for (String s1: removals.toRemove.keySet())
@@ -485,8 +801,8 @@ public class Run {
             assert(originalWordCount == WordCounterData.getCount(wordCount, true));
 
             for (Map.Entry<String, WordCounterData> entry: wordCount.entrySet()) {
-            	removals.collect(entry, MasryConsts.masry_prefixes_verbs, removals.prefixWordVerb, entry.getValue().preVerbMarkersFound, MasryConsts.PreVerbMarkers.class);
-            	removals.collect(entry, MasryConsts.masry_postfixes_verbs, removals.postfixWordVerb, entry.getValue().postVerbMarkersFound, MasryConsts.PostVerbMarkers.class);
+            	removals.collect(entry, MasryConsts.masry_prefixes_verbs, removals.prefixWordVerb, MasryConsts.PreVerbMarkers.class);
+            	removals.collect(entry, MasryConsts.masry_postfixes_verbs, removals.postfixWordVerb, MasryConsts.PostVerbMarkers.class);
             }
 
             for (String s1: removals.toRemove.keySet())
@@ -496,8 +812,8 @@ public class Run {
 
             // noun AL prefix before noun + verb prefixes LI and A, possible but not meaningful in egyptian arbic
             for (Map.Entry<String, WordCounterData> entry: wordCount.entrySet()) {
-            	removals.collect(entry, MasryConsts.masry_prefixes_nouns, removals.prefixWordNoun, entry.getValue().preNounMarkersFound, MasryConsts.PreNounMarkers.class);
-            	removals.collect(entry, MasryConsts.masry_postfixes_nouns, removals.postfixWordNoun, entry.getValue().postNounMarkersFound, MasryConsts.PostNounMarkers.class);
+            	removals.collect(entry, MasryConsts.masry_prefixes_nouns, removals.prefixWordNoun, MasryConsts.PreNounMarkers.class);
+            	removals.collect(entry, MasryConsts.masry_postfixes_nouns, removals.postfixWordNoun, MasryConsts.PostNounMarkers.class);
             }
 
             for (String s1: removals.toRemove.keySet())
@@ -517,9 +833,9 @@ public class Run {
 
 ////
 //            for (Map.Entry<String, WordCounterData> entry: wordCount.entrySet()) {
-//            	removals.collect(entry, MasryConsts.masry_prefixes_indet, removals.prefixWordIndet, entry.getValue().preNonMarkersFound, MasryConsts.PreNonMarkers.class);
-//            	removals.collect(entry, MasryConsts.masry_prefixes_nouns, removals.prefixWordNoun, entry.getValue().preNounMarkersFound, MasryConsts.PreNounMarkers.class);
-//            	removals.collect(entry, MasryConsts.masry_prefixes_verbs, removals.prefixWordVerb, entry.getValue().preVerbMarkersFound, MasryConsts.PreVerbMarkers.class);
+//            	removals.collect(entry, MasryConsts.masry_prefixes_indet, removals.prefixWordIndet, MasryConsts.PreNonMarkers.class);
+//            	removals.collect(entry, MasryConsts.masry_prefixes_nouns, removals.prefixWordNoun, MasryConsts.PreNounMarkers.class);
+//            	removals.collect(entry, MasryConsts.masry_prefixes_verbs, removals.prefixWordVerb, MasryConsts.PreVerbMarkers.class);
 //            }
 //
 //            for (String s1: removals.toRemove)
@@ -527,9 +843,9 @@ public class Run {
 //            removals.toRemove.clear();
 //
 //            for (Map.Entry<String, WordCounterData> entry: wordCount.entrySet()) {
-//            	removals.collect(entry, MasryConsts.masry_postfixes_indet, removals.postfixWordIndet, entry.getValue().postNonMarkersFound, MasryConsts.PostNonMarkers.class);
-//            	removals.collect(entry, MasryConsts.masry_postfixes_nouns, removals.postfixWordNoun, entry.getValue().postNounMarkersFound, MasryConsts.PostNounMarkers.class);
-//            	removals.collect(entry, MasryConsts.masry_postfixes_verbs, removals.postfixWordVerb, entry.getValue().postVerbMarkersFound, MasryConsts.PostVerbMarkers.class);
+//            	removals.collect(entry, MasryConsts.masry_postfixes_indet, removals.postfixWordIndet, MasryConsts.PostNonMarkers.class);
+//            	removals.collect(entry, MasryConsts.masry_postfixes_nouns, removals.postfixWordNoun, MasryConsts.PostNounMarkers.class);
+//            	removals.collect(entry, MasryConsts.masry_postfixes_verbs, removals.postfixWordVerb, MasryConsts.PostVerbMarkers.class);
 //            }
 //
 //            for (String s1: removals.toRemove)
@@ -538,14 +854,14 @@ public class Run {
 
 //            removals.skipShorterThan = 2;
 //            for (Map.Entry<String, WordCounterData> entry: wordCount.entrySet()) {
-//               	removals.collect(entry, MasryConsts.masry_feminin_postfixes, removals.postfixFemininWord, entry.getValue().postFemininMakrersFound, MasryConsts.PostFemininMarkers.class);
+//               	removals.collect(entry, MasryConsts.masry_feminin_postfixes, removals.postfixFemininWord, MasryConsts.PostFemininMarkers.class);
 //            }
             			
             Map<String, WordCounterData> fixUps = new HashMap<String, WordCounterData>();
             // restore end alif maqsura as default for ambigous words.
             for (Iterator<Entry<String, WordCounterData>> iter = wordCount.entrySet().iterator(); iter.hasNext();) {
             	Map.Entry<String, WordCounterData> entry = iter.next();
-            	if (entry.getKey().endsWith(MasryConsts.YA) && !entry.getValue().alloGraphFound.isEmpty()) {
+            	if (entry.getKey().endsWith(MasryConsts.YA) && (entry.getValue().markers & Markers.mask(MasryConsts.AlloGraphEnd.class)) != 0) {
             		String oldEntry = entry.getKey(); 
             		fixUps.put(oldEntry.substring(0, oldEntry.length() - 1) + MasryConsts.ALIF_MAQSURA, entry.getValue());
             		iter.remove();
@@ -562,6 +878,9 @@ public class Run {
             int i = xMostFrequentToken;
             int lastWordCount = 0;
             int displayedTokenSum = 0;
+            int largestError = 0;
+            int largestMissing = 0;
+            int exact = 0;
 
         	Map<String, WordCounterData> tempMap = new HashMap<String, WordCounterData>();
         	Map<String, WordCounterData> sortedTempMap = new TreeMap<String, WordCounterData>(new WordCounterData.WordCounterDataValueComp(tempMap));
@@ -570,26 +889,31 @@ public class Run {
             	int count = 0;
             	for (int c: data.counts)
             		count += c;
+            	// approximate counts are the highest the word may have been found
+            	count += data.error;
             	if (i-- <= 0 && count < lastWordCount) {
             		i++;
              		break;
             	}
-            	displayedTokenSum += count;
+            	displayedTokenSum += count - data.error;
+            	largestError = Math.max(largestError, data.error);
+            	largestMissing = Math.max(largestMissing, data.missing);
+            	// nothing is missing if every word found was kept
+            	assert(heavyHitters == null || !heavyHitters.complete() || data.missing == 0);
+            	if (data.error == 0 && data.missing == 0)
+            		exact++;
             	System.out.print("<t count=\"" + count);
-            	String atts = "";
-            	for (@SuppressWarnings("rawtypes") EnumSet ESet: data.allEnums) {
-            		String attsPart = ESet.toString();
-            		if (attsPart != "[]")
-            			atts = atts + attsPart;
-            	}
-            	if (atts != "") 
+            	if (heavyHitters != null)
+            		System.out.print("\" error=\"" + data.error + "\" missing=\"" + data.missing);
+            	String atts = Markers.toString(data.markers);
+            	if (!atts.isEmpty())
             	   System.out.print("\" att=\"" + atts);
             	System.out.print("\">" + word);
 
             	tempMap.clear();
             	sortedTempMap.clear();
-            	for (int j = 0; j < data.words.length; j++)
-            		tempMap.put(data.words[j], new WordCounterData(data.counts[j]));
+            	for (int j = 0; j < data.forms.length; j++)
+            		tempMap.put(data.form(j), new WordCounterData(data.counts[j]));
              	sortedTempMap.putAll(tempMap);
              	for (Map.Entry<String, WordCounterData> entry: sortedTempMap.entrySet())
             		System.out.print("<form count=\"" + entry.getValue().counts[0] + "\">" + entry.getKey() + "</form>" + lineSeparator);
@@ -604,30 +928,32 @@ public class Run {
 
             	for (WordCounterData.ContextData foundAmidst: WordCounterData.randomSample(data, numberOfSamplesPerToken)) {
             		sb.setLength(0);
-            		String s2 = "";
-            		for (int j = 0; j < foundAmidst.context.length; j++) {
-            			s2 = foundAmidst.context[j];
-            			if (s2 == null) break;
-            			switch (foundAmidst.types[j]) {
-						case WORD:
-	            			sb.append("<w>");
-	            			sb.append(s2.replaceAll("&", "&amp;").replaceAll("<","&lt;"));
-	            			sb.append("</w>");															
-							break;
-						case DELIMITER:
-	            			sb.append("<s>");
-	            			sb.append(s2.replaceAll("&", "&amp;").replaceAll("<","&lt;"));
-	            			sb.append("</s>");								
-							break;
-
-						case UNKNOWN:
-	            			sb.append("<u>");
-	            			sb.append(s2.replaceAll("&", "&amp;").replaceAll("<","&lt;"));
-	            			sb.append("</u>");	
-							break;
-						}
-            		}            		
-            		System.out.println("<tic>" + sb.toString() + "</tic>");
+            		for (int item: foundAmidst.items(contextLength)) {
+            			// Delimiters are escaped only once by the dictionary.
+            			if (item >= 0) {
+            				sb.append("<s>");
+            				sb.append(DELIMITERS.xml(item));
+            				sb.append("</s>");
+            				continue;
+            			}
+            			int id = WordCounterData.tokenId(item);
+            			String s2 = TOKENS.get(id);
+            			if (TokenDictionary.isWord(id)) {
+            				sb.append("<w>");
+            				sb.append(s2.replaceAll("&", "&amp;").replaceAll("<","&lt;"));
+            				sb.append("</w>");
+            			} else {
+            				sb.append("<u>");
+            				sb.append(s2.replaceAll("&", "&amp;").replaceAll("<","&lt;"));
+            				sb.append("</u>");
+            			}
+            		}
+            		if (foundAmidst.source != null)
+            			System.out.println("<tic file=\"" + foundAmidst.source.replaceAll("&", "&amp;").replaceAll("<", "&lt;").replaceAll("\"", "&quot;") + "\">" + sb.toString() + "</tic>");
+            		else if (wiki != null)
+            			System.out.println("<tic page=\"" + wiki.pageIdOfItem(foundAmidst.position) + "\">" + sb.toString() + "</tic>");
+            		else
+            			System.out.println("<tic>" + sb.toString() + "</tic>");
             	}
             	System.out.print("</t>" + lineSeparator);
             	lastWordCount = count;
@@ -637,6 +963,18 @@ public class Run {
        		System.err.println("There were " + (overallTokenCount - displayedTokenSum) + " more token " +
        				"(including those declared unknown by regexp " + MasryConsts.someArabicCharacters.pattern() + " ) found in the input text</comment>");
        		Thread.sleep(100);
+       		if (heavyHitters != null) {
+       			CountMinSketch sketch = heavyHitters.sketch();
+       			System.out.println("<comment>Counted approximately, only " + heavyHitters.size() + " words that may be the most frequent ones were kept." + lineSeparator +
+       					"A count may be too high or too low. The words kept that were joined were found at most as often as the count says, it is at most error too high." + lineSeparator +
+       					"Variants they would be joined with that were not kept may have been found up to missing times more, they are not in the count." + lineSeparator +
+       					"Words that were kept and would only be joined through one that was not are listed on their own." + lineSeparator +
+       					"The forms of a word that was kept later may have been found up to its error times more. The largest error of the token listed is " +
+       					largestError + ", the largest missing " + largestMissing + ", " + exact + " of them are exact." + lineSeparator +
+       					"No word that was not kept was found more than " + heavyHitters.lowest() + " times, " + heavyHitters.evictions() + " words were replaced." + lineSeparator +
+       					"The count-min sketch of " + sketch.depth() + " x " + sketch.width() + " counters estimates at most " + sketch.errorBound() +
+       					" too high with a probability of " + sketch.confidence() + ".</comment>");
+       		}
             System.out.println("</tokenlist>");
         } catch (IOException e) {
 			// TODO Auto-generated catch block
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package net.homeunix.siam.wordcounter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lets the {@link Run#TEXT log} be discarded while only a sample of contexts is kept for
+ * each form. The contexts that enter a sample are queued in the order of their positions, once
+ * the log holds all their items they are copied if they are still in the sample. Then the
+ * log before the contexts not copied yet is discarded, so memory doesn't grow with the length
+ * of the text, only with the number of distinct token.
+ *
+ * @author Omar Siam
+ *
+ */
+public final class SampleKeeper {
+
+	/**
+	 * Number of log items read between copying contexts and discarding the log.
+	 */
+	private static final int DISCARD_INTERVAL = 1 << 20;
+
+	private final int contextLength;
+
+	private final ArrayDeque<WordCounterData.ContextData> sampled = new ArrayDeque<WordCounterData.ContextData>();
+
+	/**
+	 * @param contextLength
+	 * Number of items of the contexts copied.
+	 */
+	public SampleKeeper(int contextLength) {
+		this.contextLength = contextLength;
+	}
+
+	/**
+	 * A context entered the sample of its form.
+	 * @param context
+	 * Not before any context that entered before.
+	 */
+	void sampled(WordCounterData.ContextData context) {
+		sampled.add(context);
+	}
+
+	/**
+	 * Queue the contexts of the words counted before, for example the ones restored from a checkpoint.
+	 * @param wordCount
+	 */
+	public void sampled(Map<String, WordCounterData> wordCount) {
+		List<WordCounterData.ContextData> contexts = new ArrayList<WordCounterData.ContextData>();
+		for (WordCounterData data: wordCount.values())
+			contexts.addAll(data.contexts);
+		Collections.sort(contexts, new Comparator<WordCounterData.ContextData>() {
+			@Override
+			public int compare(WordCounterData.ContextData c1, WordCounterData.ContextData c2) {
+				return c1.position < c2.position ? -1 : c1.position == c2.position ? 0 : 1;
+			}
+		});
+		sampled.addAll(contexts);
+	}
+
+	/**
+	 * Copy the contexts the log holds all of and discard the log before the other ones.
+	 * Only does something every {@link #DISCARD_INTERVAL} items.
+	 * @param limit
+	 * The log after this position is kept anyway, for example because it wasn't saved yet.
+	 */
+	public void discardText(long limit) {
+		long horizon = Run.TEXT.size() - contextLength - 2;
+		if (horizon - Run.TEXT.start() < DISCARD_INTERVAL)
+			return;
+		while (!sampled.isEmpty() && sampled.peek().position <= horizon)
+			sampled.poll().keep(contextLength);
+		Run.TEXT.discard(Math.min(limit, horizon - contextLength));
+	}
+}
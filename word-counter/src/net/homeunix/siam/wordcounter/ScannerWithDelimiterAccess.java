@@ -347,7 +347,7 @@ import java.util.Objects;
  *
  * @since   1.5
  */
-public final class ScannerWithDelimiterAccess implements Iterator<String>, Closeable {
+public final class ScannerWithDelimiterAccess implements TokenSource {
 
     // Internal buffer used to hold input
     private CharBuffer buf;
@@ -355,6 +355,9 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
     // Size of internal character buffer
     private static final int BUFFER_SIZE = 1024; // change to 1024;
 
+    // Size of internal character buffer if reading from a mapped file
+    private static final int MAPPED_BUFFER_SIZE = 1 << 20;
+
     // The index into the buffer currently held by the Scanner
     private int position;
 
@@ -367,6 +370,38 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
     // Pattern used to delimit tokens
     private Pattern delimPattern;
 
+    // Automaton used instead of delimPattern to delimit tokens if not null
+    private DelimiterDfa delimDfa;
+
+    // Position up to which the automaton found no delimiter for the current token
+    private int dfaSearchPosition = -1;
+
+    // Windows onto buf for the token and the delimiters the automaton found last
+    private final TokenView tokenView = new TokenView();
+    private final TokenView delimiterView = new TokenView();
+
+    // Strings for token and delimiters found by the automaton if not null
+    private StringTable strings;
+
+    // Codes for the delimiters if not null
+    private DelimiterDictionary delimiters;
+
+    // Tells words from other token
+    private WordClassifier words = MasryConsts.arabicWords;
+
+    // Type of the last token returned
+    private TokenAndType.TokenType lastTokenType;
+
+    // Number of characters dropped from the start of buf so far
+    private long bufferOffset = 0;
+
+    // Position of the last token found by the automaton in the whole input
+    private long lastTokenOffset = -1;
+
+    // The delimiter delimiterCode was looked up for
+    private String codedDelimiter;
+    private int delimiterCode = DelimiterDictionary.NONE;
+
     // Pattern found in last hasNext operation
     private Pattern hasNextPattern;
 
@@ -567,11 +602,15 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
      * @return A scanner with the specified source and pattern
      */
     private ScannerWithDelimiterAccess(Readable source, Pattern pattern) {
+        this(source, pattern, BUFFER_SIZE);
+    }
+
+    private ScannerWithDelimiterAccess(Readable source, Pattern pattern, int bufferSize) {
         assert source != null : "source should not be null";
         assert pattern != null : "pattern should not be null";
         this.source = source;
         delimPattern = pattern;
-        buf = CharBuffer.allocate(BUFFER_SIZE);
+        buf = CharBuffer.allocate(bufferSize);
         buf.limit(0);
         matcher = delimPattern.matcher(buf);
         matcher.useTransparentBounds(true);
@@ -731,6 +770,44 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
         this(makeReadable(Files.newInputStream(source), charset));
     }
 
+    /**
+     * Constructs a new <code>Scanner</code> that produces values scanned
+     * from the specified memory mapped file. The bytes are decoded straight
+     * from the mapped segments into a large internal buffer, so there is no
+     * intermediate copy of the text and the buffer is seldom compacted.
+     *
+     * @param   source
+     *          the mapped file to be scanned
+     */
+    public ScannerWithDelimiterAccess(MappedFileSource source) {
+        this(Objects.requireNonNull(source, "source"), WHITESPACE_PATTERN, MAPPED_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a new <code>Scanner</code> that produces values scanned
+     * from the specified prefetching source. Reading and decoding is done
+     * by the source's own thread, the characters are copied into a large
+     * internal buffer.
+     *
+     * @param   source
+     *          the prefetching source to be scanned
+     */
+    public ScannerWithDelimiterAccess(PrefetchingSource source) {
+        this(Objects.requireNonNull(source, "source"), WHITESPACE_PATTERN, MAPPED_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a new <code>Scanner</code> that produces values scanned
+     * from the article text of a MediaWiki XML dump. The text is copied
+     * from the parser into a large internal buffer.
+     *
+     * @param   source
+     *          the dump to be scanned
+     */
+    public ScannerWithDelimiterAccess(WikiDumpSource source) {
+        this(Objects.requireNonNull(source, "source"), WHITESPACE_PATTERN, MAPPED_BUFFER_SIZE);
+    }
+
     /**
      * Constructs a new <code>Scanner</code> that produces values scanned
      * from the specified string.
@@ -869,6 +946,7 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
         // Gain space by compacting buffer
         if (offset > 0) {
             buf.compact();
+            bufferOffset += offset;
             translateSavedIndexes(offset);
             position -= offset;
             buf.flip();
@@ -879,6 +957,7 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
         CharBuffer newBuf = CharBuffer.allocate(newSize);
         newBuf.put(buf);
         newBuf.flip();
+        bufferOffset += offset;
         translateSavedIndexes(offset);
         position -= offset;
         buf = newBuf;
@@ -891,6 +970,8 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
     private void translateSavedIndexes(int offset) {
         if (savedScannerPosition != -1)
             savedScannerPosition -= offset;
+        if (dfaSearchPosition != -1)
+            dfaSearchPosition -= offset;
     }
 
     // If we are at the end of input then NoSuchElement;
@@ -908,6 +989,8 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
     // means that there will be another token with or without more input.
     private boolean hasTokenInBuffer() {
         matchValid = false;
+        if (delimDfa != null)
+            return hasTokenInBufferDfa();
         matcher.usePattern(delimPattern);
         matcher.region(position, buf.limit());
 
@@ -939,6 +1022,8 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
      */
     private String getCompleteTokenInBuffer(Pattern pattern) {
         matchValid = false;
+        if (pattern == null && delimDfa != null)
+            return getCompleteTokenInBufferDfa();
 
         // Skip delims first
         matcher.usePattern(delimPattern);
@@ -1034,6 +1119,103 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
         return null;
     }
 
+    // Same as hasTokenInBuffer using the delimiter automaton
+    private boolean hasTokenInBufferDfa() {
+        int end = delimDfa.matchAt(buf.array(), position, buf.limit(), sourceClosed);
+        if (end == DelimiterDfa.NEED_INPUT)
+            return false;
+        if (end != DelimiterDfa.NO_MATCH)
+            position = end;
+        return position != buf.limit();
+    }
+
+    /*
+     * Same as getCompleteTokenInBuffer(null) using the delimiter automaton.
+     *
+     * The token and the delimiters after it are found in one forward
+     * pass. If the buffer ends before the delimiters are complete the
+     * search continues where it stopped after readInput. The position
+     * is advanced to the end of the delimiters after the token.
+     */
+    private String getCompleteTokenInBufferDfa() {
+        if (!getCompleteTokenViewInBufferDfa())
+            return null;
+        // Like with the pattern the last delimiter stays the same if the last token has none.
+        if (strings == null) {
+            if (delimiterView.length() != 0)
+                delimiterMatch = delimiterView.toString();
+            return tokenView.toString();
+        }
+        if (delimiterView.length() != 0)
+            delimiterMatch = strings.get(delimiterView);
+        return strings.get(tokenView);
+    }
+
+    /*
+     * Finds the next token and the delimiters after it like
+     * getCompleteTokenInBufferDfa but only sets tokenView and delimiterView.
+     * Returns false if there is no complete token, see needInput.
+     */
+    private boolean getCompleteTokenViewInBufferDfa() {
+        char[] text = buf.array();
+        int limit = buf.limit();
+
+        // Skip delims first
+        if (!skipped) {
+            int end = delimDfa.matchAt(text, position, limit, sourceClosed);
+            if (end == DelimiterDfa.NEED_INPUT) {
+                needInput = true;
+                return false;
+            }
+            if (end != DelimiterDfa.NO_MATCH)
+                position = end;
+            skipped = true;
+        }
+
+        // If we are sitting at the end, no more tokens in buffer
+        if (position == limit) {
+            needInput = !sourceClosed;
+            return false;
+        }
+
+        // Then look for next delims, the token can't start with one
+        int p = dfaSearchPosition > position ? dfaSearchPosition : position + 1;
+        while ((p = delimDfa.find(text, p, limit)) < limit) {
+            int end = delimDfa.matchAt(text, p, limit, sourceClosed);
+            if (end == DelimiterDfa.NEED_INPUT) {
+                dfaSearchPosition = p;
+                needInput = true;
+                return false;
+            }
+            if (end != DelimiterDfa.NO_MATCH) {
+                lastTokenOffset = bufferOffset + position;
+                tokenView.set(text, position, p - position, words);
+                delimiterView.set(text, p, end - p, null);
+                position = end;
+                dfaSearchPosition = -1;
+                return true;
+            }
+            p++;
+        }
+
+        // If we can't find the next delims but no more input is coming,
+        // then we can treat the remainder as a whole token
+        if (sourceClosed) {
+            lastTokenOffset = bufferOffset + position;
+            tokenView.set(text, position, limit - position, words);
+            delimiterView.set(text, limit, 0, null);
+            position = limit;
+            dfaSearchPosition = -1;
+            return true;
+        }
+
+        // There is a partial token in the buffer; must read more
+        // to complete it
+        dfaSearchPosition = limit;
+        needInput = true;
+        return false;
+    }
+
     // Finds the specified pattern in the buffer up to horizon.
     // Returns a match for the specified input pattern.
     private String findPatternInBuffer(Pattern pattern, int horizon) {
@@ -1169,6 +1351,62 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
      */
     public ScannerWithDelimiterAccess useDelimiter(Pattern pattern) {
         delimPattern = pattern;
+        delimDfa = null;
+        return this;
+    }
+
+    /**
+     * Sets this scanner's delimiters to the ones compiled into the
+     * specified automaton. Only {@link #hasNext()}, {@link #next()} and
+     * {@link #lastDelimiter()} make use of it, every other method still
+     * uses the delimiting pattern.
+     *
+     * @param dfa A delimiter automaton
+     * @return this scanner
+     */
+    public ScannerWithDelimiterAccess useDelimiter(DelimiterDfa dfa) {
+        delimDfa = dfa;
+        dfaSearchPosition = -1;
+        return this;
+    }
+
+    /**
+     * Makes {@link #next()} and {@link #lastDelimiter()} return the Strings
+     * kept in the specified table when the delimiters are found by an
+     * automaton. Each distinct token is copied only once then, every other
+     * occurrence returns the same String object.
+     *
+     * @param strings A table of Strings or null to make a new String for each token
+     * @return this scanner
+     */
+    public ScannerWithDelimiterAccess useStringTable(StringTable strings) {
+        this.strings = strings;
+        return this;
+    }
+
+    /**
+     * Sets the classifier that tells words from other token for
+     * {@link #lastTokenType()}. With a delimiter automaton the token is
+     * classified while it is hashed.
+     *
+     * @param words A word classifier
+     * @return this scanner
+     */
+    public ScannerWithDelimiterAccess useClassifier(WordClassifier words) {
+        this.words = words;
+        return this;
+    }
+
+    /**
+     * Sets the dictionary {@link #lastDelimiterCode()} looks up delimiters in.
+     *
+     * @param delimiters A delimiter dictionary
+     * @return this scanner
+     */
+    public ScannerWithDelimiterAccess useDelimiterDictionary(DelimiterDictionary delimiters) {
+        this.delimiters = delimiters;
+        codedDelimiter = null;
+        delimiterCode = DelimiterDictionary.NONE;
         return this;
     }
 
@@ -1324,6 +1562,44 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
     	return delimiterMatch;
     }
 
+    /**
+     * Get the type of the last result.
+     *
+     * @return {@link TokenAndType.TokenType#WORD} if the classifier set by
+     * {@link #useClassifier(WordClassifier)} finds a character words are
+     * made of in it, {@link TokenAndType.TokenType#UNKNOWN} if not.
+     */
+    public TokenAndType.TokenType lastTokenType() {
+        return lastTokenType;
+    }
+
+    /**
+     * Get the position of the last result in the whole input.
+     *
+     * @return The number of characters before the last token, -1 if the
+     * delimiters are not found by an automaton.
+     */
+    public long lastTokenOffset() {
+        return lastTokenOffset;
+    }
+
+    /**
+     * Get the code of the delimiter found with the last result.
+     *
+     * @return The code of {@link #lastDelimiter()} in the dictionary set by
+     * {@link #useDelimiterDictionary(DelimiterDictionary)}, {@link DelimiterDictionary#NONE}
+     * if there is none.
+     */
+    public int lastDelimiterCode() {
+        if (delimiters == null)
+            return DelimiterDictionary.NONE;
+        if (codedDelimiter != delimiterMatch) {
+            delimiterCode = delimiters.code(delimiterMatch);
+            codedDelimiter = delimiterMatch;
+        }
+        return delimiterCode;
+    }
+
     /**
      * <p>Returns the string representation of this <code>Scanner</code>. The
      * string representation of a <code>Scanner</code> contains information
@@ -1393,6 +1669,9 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
             if (token != null) {
                 matchValid = true;
                 skipped = false;
+                // The automaton classified the token while it was found
+                boolean word = delimDfa != null ? tokenView.isWord() : words != null && words.isWord(token);
+                lastTokenType = word ? TokenAndType.TokenType.WORD : TokenAndType.TokenType.UNKNOWN;
                 return token;
             }
             if (needInput)
@@ -1402,6 +1681,51 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
         }
     }
 
+    /**
+     * Finds the next complete token like {@link #next()} but doesn't make
+     * a String of it. Only works with delimiters set by
+     * {@link #useDelimiter(DelimiterDfa)}.
+     *
+     * <p>The returned view is the same object for every token and it
+     * looks at this scanner's buffer, so it is only valid until the next
+     * token is read. {@link #lastDelimiterView()} is valid as long.
+     *
+     * @return a view of the next token
+     * @throws NoSuchElementException if no more tokens are available
+     * @throws IllegalStateException if this scanner is closed or has no
+     *         delimiter automaton
+     */
+    public TokenView nextView() {
+        ensureOpen();
+        if (delimDfa == null)
+            throw new IllegalStateException("No delimiter automaton");
+        clearCaches();
+
+        while (true) {
+            if (getCompleteTokenViewInBufferDfa()) {
+                matchValid = false;
+                skipped = false;
+                lastTokenType = tokenView.isWord() ? TokenAndType.TokenType.WORD : TokenAndType.TokenType.UNKNOWN;
+                return tokenView;
+            }
+            if (needInput)
+                readInput();
+            else
+                throwFor();
+        }
+    }
+
+    /**
+     * Get the delimiter found after the last result of {@link #nextView()}.
+     * Unlike {@link #lastDelimiter()} it is empty if that token is the last
+     * one and there is no delimiter after it.
+     *
+     * @return a view of the delimiter, valid until the next token is read
+     */
+    public TokenView lastDelimiterView() {
+        return delimiterView;
+    }
+
     /**
      * The remove operation is not supported by this implementation of
      * <code>Iterator</code>.
@@ -2552,6 +2876,7 @@ public final class ScannerWithDelimiterAccess implements Iterator<String>, Close
      */
     public ScannerWithDelimiterAccess reset() {
         delimPattern = WHITESPACE_PATTERN;
+        delimDfa = null;
         useLocale(Locale.getDefault(Locale.Category.FORMAT));
         useRadix(10);
         clearCaches();
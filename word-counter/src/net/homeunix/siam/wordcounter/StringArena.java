@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package net.homeunix.siam.wordcounter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Keeps Strings outside of the Java heap so the garbage collector never has to look at them.
+ * Every String is written once as an int length followed by its chars into direct
+ * ByteBuffers, a handle tells where. Strings that {@link ArabicKey#fits(CharSequence) fit}
+ * take one byte per char and have {@link #ENCODED} set in the length, others take their UTF-16 chars.
+ * Chars are compared to Strings, {@link ArabicKey}s and {@link TokenView}s where
+ * they are, a String is only made again by {@link #get(long)}.
+ * Buffers start small and double in size up to {@link #MAX_CHUNK} bytes, a String never spans
+ * two of them. Handles are the number of the buffer in the high and the offset in the low int.
+ * Nothing is ever removed, the memory is freed with the arena.
+ * Not thread safe. The array of buffers is never replaced, a thread that gets a handle from
+ * another one in a safe way can read the String.
+ *
+ * @author Omar Siam
+ *
+ */
+public final class StringArena {
+
+	/**
+	 * Handle for no String at all.
+	 */
+	public static final long NONE = -1;
+
+	/**
+	 * Set in the length of a String with one byte per char.
+	 */
+	static final int ENCODED = 1 << 31;
+
+	static final int MIN_CHUNK = 1 << 12;
+
+	static final int MAX_CHUNK = 1 << 24;
+
+	/**
+	 * Enough for 16 GB.
+	 */
+	static final int MAX_CHUNKS = 1 << 10;
+
+	private final ByteBuffer[] chunks = new ByteBuffer[MAX_CHUNKS];
+
+	private int chunk = -1;
+
+	/**
+	 * Bytes used in the last chunk.
+	 */
+	private int used = 0;
+
+	private long bytes = 0;
+
+	/**
+	 * Store the chars of s.
+	 * @param s
+	 * @return
+	 * The handle for them.
+	 */
+	public long add(CharSequence s) {
+		int length = s.length();
+		boolean encoded = ArabicKey.fits(s);
+		int needed = 4 + (encoded ? length : 2 * length);
+		if (chunk < 0 || chunks[chunk].capacity() - used < needed) {
+			int size = chunk < 0 ? MIN_CHUNK : Math.min(MAX_CHUNK, chunks[chunk].capacity() * 2);
+			if (chunk + 1 == MAX_CHUNKS)
+				throw new IllegalStateException("The arena is full");
+			chunk++;
+			chunks[chunk] = ByteBuffer.allocateDirect(Math.max(size, needed)).order(ByteOrder.nativeOrder());
+			bytes += chunks[chunk].capacity();
+			used = 0;
+		}
+		ByteBuffer b = chunks[chunk];
+		int offset = used;
+		if (encoded) {
+			b.putInt(offset, length | ENCODED);
+			for (int i = 0, p = offset + 4; i < length; i++, p++)
+				b.put(p, ArabicKey.encode(s.charAt(i)));
+		} else {
+			b.putInt(offset, length);
+			for (int i = 0, p = offset + 4; i < length; i++, p += 2)
+				b.putChar(p, s.charAt(i));
+		}
+		// keep the ints aligned
+		used += needed + 3 & ~3;
+		return (long) chunk << 32 | offset;
+	}
+
+	public int length(long handle) {
+		return chunks[(int) (handle >>> 32)].getInt((int) handle) & ~ENCODED;
+	}
+
+	public char charAt(long handle, int index) {
+		ByteBuffer b = chunks[(int) (handle >>> 32)];
+		int offset = (int) handle;
+		if ((b.getInt(offset) & ENCODED) != 0)
+			return ArabicKey.decode(b.get(offset + 4 + index));
+		return b.getChar(offset + 4 + 2 * index);
+	}
+
+	/**
+	 * Are the chars at handle the same as those of s.
+	 * @param handle
+	 * @param s
+	 * @return
+	 */
+	public boolean contentEquals(long handle, CharSequence s) {
+		ByteBuffer b = chunks[(int) (handle >>> 32)];
+		int offset = (int) handle;
+		int header = b.getInt(offset);
+		int length = header & ~ENCODED;
+		if (length != s.length())
+			return false;
+		if ((header & ENCODED) != 0) {
+			for (int i = 0, p = offset + 4; i < length; i++, p++)
+				if (ArabicKey.decode(b.get(p)) != s.charAt(i))
+					return false;
+		} else
+			for (int i = 0, p = offset + 4; i < length; i++, p += 2)
+				if (b.getChar(p) != s.charAt(i))
+					return false;
+		return true;
+	}
+
+	/**
+	 * Are the chars at handle the same as those of key. Bytes are compared to bytes
+	 * if both are encoded.
+	 * @param handle
+	 * @param key
+	 * @return
+	 */
+	public boolean contentEquals(long handle, ArabicKey key) {
+		if (!key.isEncoded())
+			return contentEquals(handle, (CharSequence) key);
+		ByteBuffer b = chunks[(int) (handle >>> 32)];
+		int offset = (int) handle;
+		int header = b.getInt(offset);
+		// a String that doesn't fit can't have the chars of an encoded key
+		if (header != (key.length() | ENCODED))
+			return false;
+		for (int i = 0, p = offset + 4; i < key.length(); i++, p++)
+			if (b.get(p) != key.byteAt(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * A new String with the chars at handle.
+	 * @param handle
+	 * @return
+	 */
+	public String get(long handle) {
+		ByteBuffer b = chunks[(int) (handle >>> 32)];
+		int offset = (int) handle;
+		int header = b.getInt(offset);
+		char[] chars = new char[header & ~ENCODED];
+		if ((header & ENCODED) != 0)
+			for (int i = 0, p = offset + 4; i < chars.length; i++, p++)
+				chars[i] = ArabicKey.decode(b.get(p));
+		else
+			for (int i = 0, p = offset + 4; i < chars.length; i++, p += 2)
+				chars[i] = b.getChar(p);
+		return new String(chars);
+	}
+
+	/**
+	 * Number of bytes allocated outside of the heap.
+	 * @return
+	 */
+	public long bytes() {
+		return bytes;
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+import java.util.Arrays;
+
+/**
+ * Maps the characters a {@link TokenView} looks at to Strings. Only the first occurrence of
+ * some sequence of characters is copied to a new String, every other occurrence gets the same
+ * String object. Lookups in maps keyed by these Strings don't need to hash them again.
+ * Open addressing with linear probing, the table is kept at most half full.
+ * When it holds {@link #MAX_SIZE} Strings it starts over, the dictionaries keep the token so
+ * the Strings only have to live as long as they are used.
+ *
+ * @author Omar Siam
+ *
+ */
+public class StringTable {
+
+	/**
+	 * Number of Strings kept at most.
+	 */
+	public static final int MAX_SIZE = 1 << 18;
+
+	private String[] keys;
+	private int[] hashes;
+	private int size = 0;
+
+	public StringTable() {
+		this(1 << 16);
+	}
+
+	/**
+	 * @param expected
+	 * Number of Strings kept.expected.
+	 */
+	public StringTable(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+		keys = new String[capacity];
+		hashes = new int[capacity];
+	}
+
+	/**
+	 * Get the String for the characters view looks at.
+	 * @param view
+	 * @return
+	 */
+	public String get(TokenView view) {
+		int hash = view.hashCode();
+		int mask = keys.length - 1;
+		int i = mix(hash) & mask;
+		String key;
+		while ((key = keys[i]) != null) {
+			if (hashes[i] == hash && view.contentEquals(key))
+				return key;
+			i = (i + 1) & mask;
+		}
+		key = view.toString();
+		keys[i] = key;
+		hashes[i] = hash;
+		if (++size == MAX_SIZE)
+			clear();
+		else if (size * 2 > keys.length)
+			grow();
+		return key;
+	}
+
+	/**
+	 * Number of Strings kept.
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void clear() {
+		Arrays.fill(keys, null);
+		size = 0;
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private void grow() {
+		String[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		keys = new String[oldKeys.length * 2];
+		hashes = new int[keys.length];
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == null)
+				continue;
+			int i = mix(oldHashes[j]) & mask;
+			while (keys[i] != null)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			hashes[i] = oldHashes[j];
+		}
+	}
+}
@@ -26,12 +26,23 @@ public class TokenAndType {
 	
 	public String token;
 	public TokenType type;
+	/**
+	 * Code of a delimiter in {@link Run#DELIMITERS} or id of some other token in {@link Run#TOKENS},
+	 * {@link DelimiterDictionary#NONE} if it isn't known yet.
+	 */
+	public int code = DelimiterDictionary.NONE;
 	
 	TokenAndType(String token, TokenType type) {
 		this.token = token;
 		this.type = type;
 	}
 	
+	TokenAndType(String delimiter, int code) {
+		this.token = delimiter;
+		this.type = TokenType.DELIMITER;
+		this.code = code;
+	}
+	
 	public String toString() {
 		return this.token;
 	}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package net.homeunix.siam.wordcounter;
+
+import net.homeunix.siam.wordcounter.TokenAndType.TokenType;
+
+/**
+ * Numbers the distinct words and other token found in a text, like {@link DelimiterDictionary}
+ * does for delimiters. Contexts store these ids instead of references to the Strings and their
+ * types, the Strings are only made again when the contexts are written.
+ * The lowest bit of an id tells the type, 0 for words and 1 for other token, the rest is the
+ * number of the String. Numbers are given out in the order the Strings are first seen.
+ * The chars are kept in a {@link StringArena} outside of the heap, the hash table only holds
+ * their handles, so the Strings of the token don't have to live as long as the dictionary.
+ * Can be shared by threads counting parts of a text. Lookups of known token don't lock, new
+ * token are added one at a time.
+ *
+ * @author Omar Siam
+ *
+ */
+public final class TokenDictionary {
+
+	/**
+	 * Id for no token at all.
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * Open addressing with linear probing, at most half full. Replaced by a bigger copy when it
+	 * is full, readers keep using the one they started with.
+	 */
+	private static final class Table {
+		/**
+		 * number + 1 of the token in each slot, 0 for an empty slot.
+		 */
+		final int[] slots;
+		final long[] handles;
+		final int[] hashes;
+
+		Table(int capacity) {
+			slots = new int[capacity];
+			handles = new long[capacity / 2];
+			hashes = new int[capacity / 2];
+		}
+	}
+
+	private volatile Table table = new Table(1 << 11);
+
+	private final StringArena arena = new StringArena();
+
+	/**
+	 * Written after everything about a new token, a number below it can be trusted.
+	 */
+	private volatile int size = 0;
+
+	/**
+	 * Get the id of a token, new token get the next free number.
+	 * @param token
+	 * @param type
+	 * {@link TokenType#WORD} or {@link TokenType#UNKNOWN}.
+	 * @return
+	 */
+	public int id(String token, TokenType type) {
+		if (type == TokenType.DELIMITER)
+			throw new IllegalArgumentException("Delimiters are numbered by a DelimiterDictionary");
+		int hash = token.hashCode();
+		int number = find(table, token, hash, false);
+		if (number < 0)
+			number = add(token, hash);
+		return number << 1 | (type == TokenType.WORD ? 0 : 1);
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Find the number of a token.
+	 * @param t
+	 * @param token
+	 * @param hash
+	 * @param locked
+	 * Without the lock a slot may already be set for a token that isn't completely added yet.
+	 * @return
+	 * The number or -(slot + 1) of the empty slot where it would be.
+	 */
+	private int find(Table t, String token, int hash, boolean locked) {
+		int mask = t.slots.length - 1;
+		int i = mix(hash) & mask;
+		int slot;
+		while ((slot = t.slots[i]) != 0) {
+			int number = slot - 1;
+			if (!locked && number >= size)
+				return -(i + 1);
+			if (t.hashes[number] == hash && arena.contentEquals(t.handles[number], token))
+				return number;
+			i = (i + 1) & mask;
+		}
+		return -(i + 1);
+	}
+
+	private synchronized int add(String token, int hash) {
+		Table t = table;
+		int number = find(t, token, hash, true);
+		if (number >= 0)
+			return number;
+		if ((size + 1) * 2 > t.slots.length) {
+			t = grow(t);
+			number = find(t, token, hash, true);
+		}
+		int n = size;
+		t.handles[n] = arena.add(token);
+		t.hashes[n] = hash;
+		t.slots[-number - 1] = n + 1;
+		size = n + 1;
+		return n;
+	}
+
+	private Table grow(Table old) {
+		Table t = new Table(old.slots.length * 2);
+		int mask = t.slots.length - 1;
+		for (int n = 0; n < size; n++) {
+			int i = mix(old.hashes[n]) & mask;
+			while (t.slots[i] != 0)
+				i = (i + 1) & mask;
+			t.slots[i] = n + 1;
+			t.handles[n] = old.handles[n];
+			t.hashes[n] = old.hashes[n];
+		}
+		table = t;
+		return t;
+	}
+
+	/**
+	 * Get the token for an id.
+	 * @param id
+	 * @return
+	 * A new String.
+	 */
+	public String get(int id) {
+		Table t = table;
+		return arena.get(t.handles[id >>> 1]);
+	}
+
+	/**
+	 * Is the token with this id a word.
+	 * @param id
+	 * @return
+	 */
+	public static boolean isWord(int id) {
+		return (id & 1) == 0;
+	}
+
+	/**
+	 * Number of distinct Strings, the token with the number n is get(n << 1).
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+}
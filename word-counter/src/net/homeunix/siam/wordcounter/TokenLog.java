@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package net.homeunix.siam.wordcounter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.homeunix.siam.wordcounter.TokenAndType.TokenType;
+
+/**
+ * The items of the texts counted, in the order they were found. Every token and delimiter is
+ * written once as the same int a context item would be, an occurrence of a word only keeps its
+ * position in the log. Contexts of any length are read from the log when they are written.
+ * Ints are kept in chunks that are never moved, only the array of chunks grows.
+ * Texts are separated by {@link #TEXT_END}, contexts don't reach out of their text.
+ * Not thread-safe, threads counting parts of a text each use a log of their own that are
+ * appended to one another in the order of the parts.
+ * The chunks before some position can be {@link #discard(long) discarded} if no context
+ * is read from them any more.
+ *
+ * @author Omar Siam
+ *
+ */
+public final class TokenLog {
+
+	/**
+	 * Item that ends a text. Delimiter codes are not negative and the items for
+	 * token ids are less than this.
+	 */
+	public static final int TEXT_END = -1;
+
+	private static final int CHUNK_BITS = 16;
+
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private int[][] chunks = new int[16][];
+
+	/**
+	 * Number of the chunk at the start of chunks, the ones before it are discarded.
+	 */
+	private int first = 0;
+
+	private long size = 0;
+
+	/**
+	 * Append an item.
+	 * @param item
+	 * @return
+	 * The position of the item.
+	 */
+	public long append(int item) {
+		int c = (int) (size >>> CHUNK_BITS) - first;
+		if (c == chunks.length)
+			chunks = Arrays.copyOf(chunks, c * 2);
+		if (chunks[c] == null)
+			chunks[c] = new int[CHUNK_SIZE];
+		chunks[c][(int) size & CHUNK_MASK] = item;
+		return size++;
+	}
+
+	/**
+	 * Append all the items of another log.
+	 * @param log
+	 * @return
+	 * The position the first item of log got.
+	 */
+	public long append(TokenLog log) {
+		long start = size;
+		for (long p = 0; p < log.size; p++)
+			append(log.get(p));
+		return start;
+	}
+
+	/**
+	 * End the text the items appended so far belong to.
+	 */
+	public void endText() {
+		if (size > 0 && get(size - 1) != TEXT_END)
+			append(TEXT_END);
+	}
+
+	public int get(long position) {
+		return chunks[(int) (position >>> CHUNK_BITS) - first][(int) position & CHUNK_MASK];
+	}
+
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Position of the first item that wasn't discarded.
+	 * @return
+	 */
+	public long start() {
+		return (long) first << CHUNK_BITS;
+	}
+
+	/**
+	 * Drop the chunks that only hold items before a position. Items before it may still be
+	 * kept, but contexts of words that reach before it can't be read any more.
+	 * @param before
+	 */
+	public void discard(long before) {
+		int n = (int) (Math.min(before, size) >>> CHUNK_BITS) - first;
+		if (n <= 0)
+			return;
+		System.arraycopy(chunks, n, chunks, 0, chunks.length - n);
+		Arrays.fill(chunks, chunks.length - n, chunks.length, null);
+		first += n;
+	}
+
+	/**
+	 * Get the context of the word at position. The word is preceded by (length + 1) / 2 - 3 items
+	 * like in the context buffer Run counts with. Near the end of the text the context buffer
+	 * empties one item at a time, then the context starts one item earlier and goes on to the
+	 * end of the text. Before the start of a text there are as many &gt; as needed.
+	 * @param position
+	 * Position of a word.
+	 * @param length
+	 * Number of items, at least 5.
+	 * @return
+	 * Delimiter codes and the {@link WordCounterData#tokenItem(int) items} of token ids.
+	 */
+	public int[] context(long position, int length) {
+		if (length < 5)
+			throw new IllegalArgumentException("Contexts have at least 5 items");
+		int middle = (length + 1) / 2 - 1;
+		long end = position + 1;
+		long last = position + length - middle + 2;
+		while (end < last && end < size && get(end) != TEXT_END)
+			end++;
+		long from = end <= position + length - middle ? position - (middle - 1) : position - (middle - 2);
+		long start = position;
+		while (start > from && start > 0 && get(start - 1) != TEXT_END)
+			start--;
+		int[] items = new int[(int) (end - from)];
+		int i = 0;
+		if (start > from) {
+			int pad = WordCounterData.tokenItem(Run.TOKENS.id(">", TokenType.UNKNOWN));
+			for (; i < start - from; i++)
+				items[i] = pad;
+		}
+		for (long p = start; p < end; p++)
+			items[i++] = get(p);
+		return items;
+	}
+
+	/**
+	 * Write the items from a position on to a checkpoint.
+	 * @param out
+	 * @param from
+	 * Position of the first item to write, the ones before it were written before.
+	 * @throws IOException
+	 */
+	void write(DataOutput out, long from) throws IOException {
+		if (from < start())
+			throw new IllegalStateException("Part of the log was discarded");
+		for (long p = from; p < size; p++)
+			out.writeInt(get(p));
+	}
+
+	/**
+	 * Append items written by {@link #write(DataOutput, long)}.
+	 * @param in
+	 * @param n
+	 * Number of items.
+	 * @throws IOException
+	 */
+	void read(DataInput in, long n) throws IOException {
+		for (; n > 0; n--)
+			append(in.readInt());
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Splits a text into token and the delimiters found after each of them.
+ * 
+ * @author Omar Siam
+ *
+ */
+public interface TokenSource extends Iterator<String>, Closeable {
+	
+	/**
+	 * Get the delimiter found with the last result.
+	 * 
+	 * @return The delimiter that was found after the last result.
+	 */
+	public String lastDelimiter();
+	
+	/**
+	 * Get the type of the last result.
+	 * 
+	 * @return WORD or UNKNOWN as told by the word classifier of this source.
+	 */
+	public TokenAndType.TokenType lastTokenType();
+	
+	/**
+	 * Get the code of the delimiter found with the last result.
+	 * 
+	 * @return The code in the dictionary set with useDelimiterDictionary or
+	 * {@link DelimiterDictionary#NONE} if there is none.
+	 */
+	public int lastDelimiterCode();
+	
+	/**
+	 * Close the underlying input. Errors are not reported here.
+	 */
+	@Override
+	public void close();
+}
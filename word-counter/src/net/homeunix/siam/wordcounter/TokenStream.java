@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits the characters read from some source into token, the delimiters after them and
+ * the type of the token. Unlike {@link ScannerWithDelimiterAccess} there is no radix, locale,
+ * number parsing or state to save and revert: {@link #advance()} finds the next token and
+ * its delimiters in one forward pass over the buffer and classifies the token while it is hashed.
+ * How delimiters look like is up to a {@link DelimiterMatcher}.
+ *
+ * @author Omar Siam
+ *
+ */
+public class TokenStream implements TokenSource {
+
+	/**
+	 * Default size of the buffer, grows if a token and its delimiters don't fit.
+	 */
+	public static final int BUFFER_SIZE = 1 << 20;
+
+	private final Readable source;
+
+	private final DelimiterMatcher delimiters;
+
+	private char[] buf;
+
+	/**
+	 * Valid characters in buf.
+	 */
+	private int limit = 0;
+
+	/**
+	 * Where to go on in buf.
+	 */
+	private int position = 0;
+
+	/**
+	 * Number of characters dropped from the start of buf so far.
+	 */
+	private long bufferOffset = 0;
+
+	private boolean endOfInput = false;
+
+	private boolean skipped = false;
+
+	private boolean pending = false;
+
+	private final TokenView tokenView = new TokenView();
+	private final TokenView delimiterView = new TokenView();
+	private long tokenOffset = -1;
+
+	private WordClassifier words = MasryConsts.arabicWords;
+
+	private StringTable strings = new StringTable();
+
+	private DelimiterDictionary dictionary;
+
+	private String lastToken;
+	private String lastDelimiter;
+	private int lastDelimiterCode = DelimiterDictionary.NONE;
+	private TokenAndType.TokenType lastTokenType;
+
+	private IOException lastException;
+
+	public TokenStream(Readable source, DelimiterMatcher delimiters) {
+		this(source, delimiters, BUFFER_SIZE);
+	}
+
+	/**
+	 * @param source
+	 * @param delimiters
+	 * @param bufferSize
+	 * Initial size of the buffer.
+	 */
+	public TokenStream(Readable source, DelimiterMatcher delimiters, int bufferSize) {
+		this.source = source;
+		this.delimiters = delimiters;
+		this.buf = new char[Math.max(bufferSize, 16)];
+	}
+
+	/**
+	 * Set the classifier that tells words from other token, by default
+	 * {@link MasryConsts#arabicWords}.
+	 * @param words
+	 */
+	public void useClassifier(WordClassifier words) {
+		this.words = words;
+	}
+
+	/**
+	 * Set the table the Strings for token and delimiters come from.
+	 * @param strings
+	 */
+	public void useStringTable(StringTable strings) {
+		this.strings = strings;
+	}
+
+	/**
+	 * Set the dictionary {@link #lastDelimiterCode()} looks up delimiters in.
+	 * @param dictionary
+	 */
+	public void useDelimiterDictionary(DelimiterDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Read more input keeping everything from keep on.
+	 * @param keep
+	 * @return
+	 * The offset to subtract from positions in buf that are kept.
+	 * @throws IOException
+	 */
+	private int fill(int keep) throws IOException {
+		int offset = 0;
+		if (limit == buf.length) {
+			// Gain space by compacting the buffer or else by growing it
+			if (keep > 0) {
+				System.arraycopy(buf, keep, buf, 0, limit - keep);
+				limit -= keep;
+				position -= keep;
+				bufferOffset += keep;
+				offset = keep;
+			} else
+				buf = Arrays.copyOf(buf, buf.length * 2);
+		}
+		int n = 0;
+		while (n == 0)
+			n = source.read(CharBuffer.wrap(buf, limit, buf.length - limit));
+		if (n < 0)
+			endOfInput = true;
+		else
+			limit += n;
+		return offset;
+	}
+
+	/**
+	 * Find the next token, its delimiters and its type.
+	 * @return
+	 * False if there are no more token.
+	 * @throws IOException
+	 */
+	public boolean advance() throws IOException {
+		int e;
+		if (!skipped) {
+			// Skip delims first
+			while ((e = delimiters.matchAt(buf, position, limit, endOfInput)) == DelimiterMatcher.NEED_INPUT)
+				fill(position);
+			if (e != DelimiterMatcher.NO_MATCH)
+				position = e;
+			skipped = true;
+		}
+		while (position == limit && !endOfInput)
+			fill(position);
+		if (position == limit)
+			return false;
+
+		int start = position;
+		int p = start + 1;
+		while (true) {
+			p = delimiters.find(buf, p, limit);
+			if (p == limit) {
+				if (endOfInput) {
+					// The rest is the last token
+					e = DelimiterMatcher.NO_MATCH;
+					break;
+				}
+				int offset = fill(start);
+				start -= offset;
+				p -= offset;
+				continue;
+			}
+			e = delimiters.matchAt(buf, p, limit, endOfInput);
+			if (e == DelimiterMatcher.NEED_INPUT) {
+				int offset = fill(start);
+				start -= offset;
+				p -= offset;
+				continue;
+			}
+			if (e != DelimiterMatcher.NO_MATCH)
+				break;
+			p++;
+		}
+		tokenOffset = bufferOffset + start;
+		tokenView.set(buf, start, p - start, words);
+		if (e == DelimiterMatcher.NO_MATCH) {
+			delimiterView.set(buf, p, 0, null);
+			position = p;
+		} else {
+			delimiterView.set(buf, p, e - p, null);
+			position = e;
+		}
+		return true;
+	}
+
+	/**
+	 * The current token, valid until the next call of {@link #advance()}.
+	 * @return
+	 */
+	public TokenView tokenView() {
+		return tokenView;
+	}
+
+	/**
+	 * The delimiters after the current token, empty after the last one.
+	 * Valid until the next call of {@link #advance()}.
+	 * @return
+	 */
+	public TokenView delimiterView() {
+		return delimiterView;
+	}
+
+	/**
+	 * Position of the current token in the whole input.
+	 * @return
+	 */
+	public long tokenOffset() {
+		return tokenOffset;
+	}
+
+	/**
+	 * Position in the whole input after the delimiters of the token returned last.
+	 * @return
+	 */
+	public long position() {
+		return bufferOffset + position;
+	}
+
+	/**
+	 * Go on reading at a position returned by {@link #position()} of some other stream
+	 * on the same input. The characters before it are read and dropped.
+	 * @param offset
+	 * @param lastDelimiter
+	 * What {@link #lastDelimiter()} returned at that position.
+	 * @throws IOException
+	 */
+	public void resumeAt(long offset, String lastDelimiter) throws IOException {
+		while (bufferOffset + limit < offset && !endOfInput) {
+			bufferOffset += limit;
+			limit = 0;
+			position = 0;
+			fill(0);
+		}
+		if (bufferOffset + limit < offset)
+			throw new IOException("Input ends before " + offset);
+		position = (int) (offset - bufferOffset);
+		skipped = true;
+		pending = false;
+		this.lastDelimiter = lastDelimiter;
+		if (lastDelimiter != null && dictionary != null)
+			lastDelimiterCode = dictionary.code(lastDelimiter);
+	}
+
+	/**
+	 * Returns the <code>IOException</code> last thrown while reading. Like the scanner
+	 * this stream treats it like the end of input.
+	 * @return
+	 */
+	public IOException ioException() {
+		return lastException;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!pending) {
+			try {
+				pending = advance();
+			} catch (IOException ioe) {
+				lastException = ioe;
+				pending = false;
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Get the next token. Its delimiter and type are available right away, no second search is needed.
+	 */
+	@Override
+	public String next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		pending = false;
+		lastToken = strings.get(tokenView);
+		lastTokenType = tokenView.isWord() ? TokenAndType.TokenType.WORD : TokenAndType.TokenType.UNKNOWN;
+		// Like the scanner the last delimiter stays the same if the last token has none.
+		if (delimiterView.length() != 0) {
+			String delimiter = strings.get(delimiterView);
+			if (delimiter != lastDelimiter && dictionary != null)
+				lastDelimiterCode = dictionary.code(delimiter);
+			lastDelimiter = delimiter;
+		}
+		return lastToken;
+	}
+
+	@Override
+	public String lastDelimiter() {
+		return lastDelimiter;
+	}
+
+	@Override
+	public TokenAndType.TokenType lastTokenType() {
+		return lastTokenType;
+	}
+
+	@Override
+	public int lastDelimiterCode() {
+		return lastDelimiterCode;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() {
+		if (source instanceof Closeable) {
+			try {
+				((Closeable) source).close();
+			} catch (IOException ioe) {
+				lastException = ioe;
+			}
+		}
+	}
+}
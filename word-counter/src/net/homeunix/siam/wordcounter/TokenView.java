@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+/**
+ * A window onto a char array that is reused for every token instead of making a new String.
+ * Length and hash are known as soon as the window is set, the hash is the same as the one
+ * of the String with these characters. The characters are only valid until the owner of the
+ * array changes them, that is until the next token is read. Use {@link StringTable#get(TokenView)}
+ * or {@link #toString()} to keep them.
+ *
+ * @author Omar Siam
+ *
+ */
+public final class TokenView implements CharSequence {
+
+	private char[] text;
+	private int start;
+	private int length;
+	private int hash;
+	private boolean word;
+
+	/**
+	 * Look at length characters starting at start.
+	 * @param text
+	 * @param start
+	 * @param length
+	 * @param words
+	 * Classifier used while hashing the characters or null.
+	 */
+	void set(char[] text, int start, int length, WordClassifier words) {
+		this.text = text;
+		this.start = start;
+		this.length = length;
+		int end = start + length;
+		int i = start;
+		int h = 0;
+		// Four characters per step, the products don't depend on each other.
+		for (int batchEnd = end - 4; i <= batchEnd; i += 4)
+			h = 923521 * h + 29791 * text[i] + 961 * text[i + 1] + 31 * text[i + 2] + text[i + 3];
+		for (; i < end; i++)
+			h = 31 * h + text[i];
+		boolean w = false;
+		// Usually the first character already tells it is a word.
+		if (words != null)
+			for (i = start; i < end && !w; i++)
+				w = words.isWordChar(text[i]);
+		hash = h;
+		word = w;
+	}
+
+	/**
+	 * Is this a word according to the classifier the view was set with.
+	 * @return
+	 */
+	public boolean isWord() {
+		return word;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		return text[start + index];
+	}
+
+	/**
+	 * A copy of the characters, the subsequence doesn't change with this view.
+	 */
+	@Override
+	public CharSequence subSequence(int from, int to) {
+		if (from < 0 || to > length || from > to)
+			throw new IndexOutOfBoundsException();
+		return new String(text, start + from, to - from);
+	}
+
+	/**
+	 * Same as the hash code of the String with these characters.
+	 */
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	/**
+	 * Compare the characters to some String.
+	 * @param s
+	 * @return
+	 */
+	public boolean contentEquals(String s) {
+		if (s.length() != length)
+			return false;
+		for (int i = 0; i < length; i++)
+			if (s.charAt(i) != text[start + i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * A new String with these characters.
+	 */
+	@Override
+	public String toString() {
+		return new String(text, start, length);
+	}
+}
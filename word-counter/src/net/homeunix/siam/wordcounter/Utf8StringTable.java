@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Maps UTF-8 encoded byte ranges to Strings. The bytes are hashed and compared as they are,
+ * only the first occurrence of some byte sequence is decoded. Every other occurrence gets the
+ * same String object.
+ * Open addressing with linear probing, the table is kept at most half full.
+ * Like a {@link StringTable} it starts over when it holds {@link StringTable#MAX_SIZE} Strings.
+ *
+ * @author Omar Siam
+ *
+ */
+public class Utf8StringTable {
+
+	private byte[][] keys;
+	private int[] hashes;
+	private String[] values;
+	private int size = 0;
+
+	public Utf8StringTable() {
+		this(1 << 16);
+	}
+
+	/**
+	 * @param expected
+	 * Number of Strings kept.expected.
+	 */
+	public Utf8StringTable(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+		keys = new byte[capacity][];
+		hashes = new int[capacity];
+		values = new String[capacity];
+	}
+
+	/**
+	 * Hash the bytes from start to end the way String.hashCode() hashes chars.
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public static int hash(ByteBuffer text, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++)
+			h = 31 * h + text.get(i);
+		return h;
+	}
+
+	/**
+	 * Get the String for the bytes from start to end.
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @param hash
+	 * The result of {@link #hash(ByteBuffer, int, int)} for these bytes.
+	 * @return
+	 */
+	public String get(ByteBuffer text, int start, int end, int hash) {
+		int mask = keys.length - 1;
+		int i = mix(hash) & mask;
+		byte[] key;
+		while ((key = keys[i]) != null) {
+			if (hashes[i] == hash && equals(key, text, start, end))
+				return values[i];
+			i = (i + 1) & mask;
+		}
+		key = new byte[end - start];
+		for (int j = 0; j < key.length; j++)
+			key[j] = text.get(start + j);
+		String value = new String(key, StandardCharsets.UTF_8);
+		keys[i] = key;
+		hashes[i] = hash;
+		values[i] = value;
+		if (++size == StringTable.MAX_SIZE)
+			clear();
+		else if (size * 2 > keys.length)
+			grow();
+		return value;
+	}
+
+	/**
+	 * Number of Strings kept.
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	private static boolean equals(byte[] key, ByteBuffer text, int start, int end) {
+		if (key.length != end - start)
+			return false;
+		for (int j = 0; j < key.length; j++)
+			if (key[j] != text.get(start + j))
+				return false;
+		return true;
+	}
+
+	private void clear() {
+		Arrays.fill(keys, null);
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private void grow() {
+		byte[][] oldKeys = keys;
+		int[] oldHashes = hashes;
+		String[] oldValues = values;
+		keys = new byte[oldKeys.length * 2][];
+		hashes = new int[keys.length];
+		values = new String[keys.length];
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == null)
+				continue;
+			int i = mix(oldHashes[j]) & mask;
+			while (keys[i] != null)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			hashes[i] = oldHashes[j];
+			values[i] = oldValues[j];
+		}
+	}
+}
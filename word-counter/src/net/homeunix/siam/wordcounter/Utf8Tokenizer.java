@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+
+/**
+ * Tokenizer that works on the UTF-8 encoded bytes of a memory mapped file.
+ * The text is never decoded as a whole. Token and delimiters are byte ranges of the
+ * mapped file that are hashed while they are found, Strings are only made for distinct
+ * token and delimiters by a {@link Utf8StringTable}.
+ * Words are told from other token by a {@link WordClassifier} while the token is hashed.
+ *
+ * @author Omar Siam
+ *
+ */
+public class Utf8Tokenizer implements TokenSource {
+
+	/**
+	 * Default size of one mapped segment of the file.
+	 */
+	public static final int SEGMENT_SIZE = 1 << 28;
+
+	private final FileChannel channel;
+
+	private final long size;
+
+	/**
+	 * No token starting at or after this position in the file is returned.
+	 */
+	private final long end;
+
+	private final int segmentSize;
+
+	private final DelimiterDfa dfa;
+
+	private final Utf8StringTable strings;
+
+	private MappedByteBuffer segment;
+
+	private long segmentStart;
+
+	/**
+	 * Position in the mapped segment.
+	 */
+	private int position;
+
+	private boolean skipped = false;
+
+	private boolean pending = false;
+
+	private int tokenStart;
+	private int tokenEnd;
+	private int tokenHash;
+	private boolean tokenIsWord;
+	private int delimiterEnd;
+
+	private String lastDelimiter;
+
+	private DelimiterDictionary delimiters;
+
+	private WordClassifier words = MasryConsts.arabicWords;
+
+	private TokenAndType.TokenType lastTokenType;
+
+	private int lastDelimiterCode = DelimiterDictionary.NONE;
+
+	private IOException lastException;
+
+	/**
+	 * Tokenize a whole file.
+	 * @param path
+	 * @param dfa
+	 * An automaton compiled using {@link DelimiterDfa#compileUtf8(String, String, String...)}
+	 * @throws IOException
+	 */
+	public Utf8Tokenizer(Path path, DelimiterDfa dfa) throws IOException {
+		this(FileChannel.open(path, StandardOpenOption.READ), 0, Long.MAX_VALUE, dfa, new Utf8StringTable(), SEGMENT_SIZE);
+	}
+
+	/**
+	 * Tokenize a part of a file.
+	 * @param channel
+	 * The file.
+	 * @param start
+	 * Where to start. Delimiters at start are skipped.
+	 * @param end
+	 * The last token returned is the one starting before end. It and its delimiters may go on after end.
+	 * @param dfa
+	 * An automaton compiled using {@link DelimiterDfa#compileUtf8(String, String, String...)}
+	 * @param strings
+	 * Table for the Strings returned by {@link #next()}.
+	 * @param segmentSize
+	 * Number of bytes mapped at once. Token and their delimiters have to be shorter.
+	 * @throws IOException
+	 */
+	public Utf8Tokenizer(FileChannel channel, long start, long end, DelimiterDfa dfa, Utf8StringTable strings, int segmentSize) throws IOException {
+		this.channel = channel;
+		this.size = channel.size();
+		this.end = Math.min(end, size);
+		this.segmentSize = segmentSize;
+		this.dfa = dfa;
+		this.strings = strings;
+		map(start);
+	}
+
+	private void map(long start) throws IOException {
+		segmentStart = start;
+		segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+		position = 0;
+	}
+
+	private boolean lastSegment() {
+		return segmentStart + segment.limit() == size;
+	}
+
+	/**
+	 * Map the next segment starting at keep.
+	 * @param keep
+	 * Position in the current segment that has to be in the next one.
+	 * @return
+	 * The offset to subtract from positions in the current segment.
+	 * @throws IOException
+	 */
+	private int remap(int keep) throws IOException {
+		if (keep == 0)
+			throw new IOException("Token at " + segmentStart + " is longer than " + segmentSize + " bytes");
+		int oldPosition = position;
+		map(segmentStart + keep);
+		position = oldPosition - keep;
+		return keep;
+	}
+
+	/**
+	 * Set the classifier that tells words from other token, by default
+	 * {@link MasryConsts#arabicWords}.
+	 * @param words
+	 */
+	public void useClassifier(WordClassifier words) {
+		this.words = words;
+	}
+
+	/**
+	 * Set the dictionary {@link #lastDelimiterCode()} looks up delimiters in.
+	 * @param delimiters
+	 */
+	public void useDelimiterDictionary(DelimiterDictionary delimiters) {
+		this.delimiters = delimiters;
+	}
+
+	/**
+	 * Find the next token and its delimiters.
+	 * @return
+	 * False if there are no more token.
+	 * @throws IOException
+	 */
+	public boolean advance() throws IOException {
+		int e;
+		if (!skipped) {
+			// Skip delims first
+			while ((e = dfa.matchAt(segment, position, segment.limit(), lastSegment())) == DelimiterDfa.NEED_INPUT)
+				remap(position);
+			if (e != DelimiterDfa.NO_MATCH)
+				position = e;
+			skipped = true;
+		}
+		if (position == segment.limit() && !lastSegment())
+			remap(position);
+		if (segmentStart + position >= end || position == segment.limit())
+			return false;
+
+		int start = position;
+		int p = start + 1;
+		while (true) {
+			p = dfa.find(segment, p, segment.limit());
+			if (p == segment.limit()) {
+				if (lastSegment()) {
+					// The rest is the last token
+					e = DelimiterDfa.NO_MATCH;
+					break;
+				}
+				int offset = remap(start);
+				start -= offset;
+				p -= offset;
+				continue;
+			}
+			e = dfa.matchAt(segment, p, segment.limit(), lastSegment());
+			if (e == DelimiterDfa.NEED_INPUT) {
+				int offset = remap(start);
+				start -= offset;
+				p -= offset;
+				continue;
+			}
+			if (e != DelimiterDfa.NO_MATCH)
+				break;
+			p++;
+		}
+		tokenStart = start;
+		tokenEnd = p;
+		delimiterEnd = e == DelimiterDfa.NO_MATCH ? p : e;
+		position = delimiterEnd;
+		int h = 0;
+		boolean word = false;
+		for (int i = tokenStart; i < tokenEnd; i++) {
+			byte b = segment.get(i);
+			h = 31 * h + b;
+			if (!word && words.isWordCharAt(segment, i, tokenEnd))
+				word = true;
+		}
+		tokenHash = h;
+		tokenIsWord = word;
+		return true;
+	}
+
+	/**
+	 * The mapped segment the positions of the current token refer to.
+	 * @return
+	 */
+	public ByteBuffer buffer() {
+		return segment;
+	}
+
+	public int tokenStart() {
+		return tokenStart;
+	}
+
+	public int tokenEnd() {
+		return tokenEnd;
+	}
+
+	/**
+	 * Same as {@link Utf8StringTable#hash(ByteBuffer, int, int)} for the current token.
+	 * @return
+	 */
+	public int tokenHash() {
+		return tokenHash;
+	}
+
+	/**
+	 * Does the current token contain a character words are made of.
+	 * @return
+	 */
+	public boolean isWord() {
+		return tokenIsWord;
+	}
+
+	public int delimiterEnd() {
+		return delimiterEnd;
+	}
+
+	/**
+	 * Position of the current token in the file.
+	 * @return
+	 */
+	public long tokenPosition() {
+		return segmentStart + tokenStart;
+	}
+
+	/**
+	 * Position in the file after the delimiters of the current token.
+	 * @return
+	 */
+	public long position() {
+		return segmentStart + position;
+	}
+
+	/**
+	 * Returns the <code>IOException</code> last thrown while reading. Like the scanner
+	 * this tokenizer treats it like the end of input.
+	 * @return
+	 */
+	public IOException ioException() {
+		return lastException;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!pending) {
+			try {
+				pending = advance();
+			} catch (IOException ioe) {
+				lastException = ioe;
+				pending = false;
+			}
+		}
+		return pending;
+	}
+
+	@Override
+	public String next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		pending = false;
+		lastTokenType = tokenIsWord ? TokenAndType.TokenType.WORD : TokenAndType.TokenType.UNKNOWN;
+		// Like the scanner the last delimiter stays the same if the last token has none.
+		if (delimiterEnd != tokenEnd) {
+			String delimiter = strings.get(segment, tokenEnd, delimiterEnd, Utf8StringTable.hash(segment, tokenEnd, delimiterEnd));
+			if (delimiter != lastDelimiter && delimiters != null)
+				lastDelimiterCode = delimiters.code(delimiter);
+			lastDelimiter = delimiter;
+		}
+		return strings.get(segment, tokenStart, tokenEnd, tokenHash);
+	}
+
+	@Override
+	public String lastDelimiter() {
+		return lastDelimiter;
+	}
+
+	@Override
+	public TokenAndType.TokenType lastTokenType() {
+		return lastTokenType;
+	}
+
+	@Override
+	public int lastDelimiterCode() {
+		return lastDelimiterCode;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException ioe) {
+			lastException = ioe;
+		}
+		segment = null;
+	}
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package net.homeunix.siam.wordcounter;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The words counted so far and their data. Does the same as a LinkedHashMap, entries are
+ * iterated in the order they were put, but there are no node objects per entry. Every word gets
+ * the next id, key, hash and data are kept in arrays indexed by that id. The hash table is an array
+ * of ids using open addressing with linear probing, kept at most half full.
+ * Removed entries leave their id behind until the table grows, lookups go on probing past them.
+ * Lookups don't allocate anything and also work with an {@link ArabicKey}.
+ * The keys are kept in a {@link StringArena} outside of the heap, a String is only made for a key
+ * when an entry is iterated.
+ *
+ * @author Omar Siam
+ *
+ */
+public class Vocabulary extends AbstractMap<String, WordCounterData> {
+
+	/**
+	 * id + 1 of the entry in each slot, 0 for an empty slot.
+	 */
+	private int[] slots;
+
+	/**
+	 * Handle of the key for each id, {@link StringArena#NONE} if the entry was removed.
+	 */
+	private long[] keys;
+
+	private StringArena arena = new StringArena();
+
+	private int[] hashes;
+
+	private WordCounterData[] values;
+
+	/**
+	 * Number of ids given out.
+	 */
+	private int ids = 0;
+
+	private int size = 0;
+
+	/**
+	 * Incremented on every change of the keys.
+	 */
+	private int modifications = 0;
+
+	private Set<Entry<String, WordCounterData>> entrySet;
+
+	public Vocabulary() {
+		this(1 << 10);
+	}
+
+	/**
+	 * @param expected
+	 * Number of distinct words expected.
+	 */
+	public Vocabulary(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+		slots = new int[capacity];
+		keys = new long[capacity / 2];
+		hashes = new int[capacity / 2];
+		values = new WordCounterData[capacity / 2];
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Find the id of a key.
+	 * @param key
+	 * @param hash
+	 * @return
+	 * The id or -(slot + 1) of the empty slot where it would be.
+	 */
+	private int find(String key, int hash) {
+		int mask = slots.length - 1;
+		int i = mix(hash) & mask;
+		int slot;
+		while ((slot = slots[i]) != 0) {
+			int id = slot - 1;
+			long k = keys[id];
+			if (hashes[id] == hash && k != StringArena.NONE && arena.contentEquals(k, key))
+				return id;
+			i = (i + 1) & mask;
+		}
+		return -(i + 1);
+	}
+
+	private int find(ArabicKey key) {
+		int hash = key.hashCode();
+		int mask = slots.length - 1;
+		int i = mix(hash) & mask;
+		int slot;
+		while ((slot = slots[i]) != 0) {
+			int id = slot - 1;
+			long k = keys[id];
+			if (hashes[id] == hash && k != StringArena.NONE && arena.contentEquals(k, key))
+				return id;
+			i = (i + 1) & mask;
+		}
+		return -(i + 1);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof String && find((String) key, key.hashCode()) >= 0;
+	}
+
+	@Override
+	public WordCounterData get(Object key) {
+		if (!(key instanceof String))
+			return null;
+		int id = find((String) key, key.hashCode());
+		return id >= 0 ? values[id] : null;
+	}
+
+	/**
+	 * Get the data for the word a key holds without making a String of it.
+	 * @param key
+	 * @return
+	 */
+	public WordCounterData get(ArabicKey key) {
+		int id = find(key);
+		return id >= 0 ? values[id] : null;
+	}
+
+	@Override
+	public WordCounterData put(String key, WordCounterData value) {
+		if (key == null)
+			throw new NullPointerException();
+		int hash = key.hashCode();
+		int id = find(key, hash);
+		if (id >= 0) {
+			WordCounterData old = values[id];
+			values[id] = value;
+			return old;
+		}
+		if (ids == keys.length) {
+			grow();
+			id = find(key, hash);
+		}
+		int slot = -id - 1;
+		id = ids++;
+		slots[slot] = id + 1;
+		keys[id] = arena.add(key);
+		hashes[id] = hash;
+		values[id] = value;
+		size++;
+		modifications++;
+		return null;
+	}
+
+	@Override
+	public WordCounterData remove(Object key) {
+		if (!(key instanceof String))
+			return null;
+		int id = find((String) key, key.hashCode());
+		if (id < 0)
+			return null;
+		WordCounterData old = values[id];
+		keys[id] = StringArena.NONE;
+		values[id] = null;
+		size--;
+		modifications++;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(slots, 0);
+		Arrays.fill(keys, StringArena.NONE);
+		Arrays.fill(values, null);
+		arena = new StringArena();
+		ids = 0;
+		size = 0;
+		modifications++;
+	}
+
+	/**
+	 * Double the table if it is more than a quarter full of live entries, else only drop the
+	 * removed ones. Ids are given out anew in the same order. If at least half of the ids were
+	 * removed the keys are copied to a new arena so the old one can be freed.
+	 */
+	private void grow() {
+		int capacity = slots.length;
+		if (size * 4 > capacity)
+			capacity *= 2;
+		StringArena oldArena = arena;
+		if (ids - size >= size)
+			arena = new StringArena();
+		long[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		WordCounterData[] oldValues = values;
+		int oldIds = ids;
+		slots = new int[capacity];
+		keys = new long[capacity / 2];
+		hashes = new int[capacity / 2];
+		values = new WordCounterData[capacity / 2];
+		ids = 0;
+		int mask = capacity - 1;
+		for (int j = 0; j < oldIds; j++) {
+			if (oldKeys[j] == StringArena.NONE)
+				continue;
+			int i = mix(oldHashes[j]) & mask;
+			while (slots[i] != 0)
+				i = (i + 1) & mask;
+			int id = ids++;
+			slots[i] = id + 1;
+			keys[id] = arena == oldArena ? oldKeys[j] : arena.add(oldArena.get(oldKeys[j]));
+			hashes[id] = oldHashes[j];
+			values[id] = oldValues[j];
+		}
+	}
+
+	private class EntryIterator implements Iterator<Entry<String, WordCounterData>> {
+
+		private int next = 0;
+		private int last = -1;
+		private int expected = modifications;
+
+		EntryIterator() {
+			skipRemoved();
+		}
+
+		private void skipRemoved() {
+			while (next < ids && keys[next] == StringArena.NONE)
+				next++;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < ids;
+		}
+
+		@Override
+		public Entry<String, WordCounterData> next() {
+			if (expected != modifications)
+				throw new ConcurrentModificationException();
+			if (next >= ids)
+				throw new NoSuchElementException();
+			last = next++;
+			skipRemoved();
+			final int id = last;
+			return new Entry<String, WordCounterData>() {
+				private String key;
+
+				@Override
+				public String getKey() {
+					if (key == null)
+						key = arena.get(keys[id]);
+					return key;
+				}
+
+				@Override
+				public WordCounterData getValue() {
+					return values[id];
+				}
+
+				@Override
+				public WordCounterData setValue(WordCounterData value) {
+					WordCounterData old = values[id];
+					values[id] = value;
+					return old;
+				}
+			};
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0 || keys[last] == StringArena.NONE)
+				throw new IllegalStateException();
+			if (expected != modifications)
+				throw new ConcurrentModificationException();
+			Vocabulary.this.remove(arena.get(keys[last]));
+			expected = modifications;
+		}
+	}
+
+	@Override
+	public Set<Entry<String, WordCounterData>> entrySet() {
+		if (entrySet == null)
+			entrySet = new AbstractSet<Entry<String, WordCounterData>>() {
+				@Override
+				public Iterator<Entry<String, WordCounterData>> iterator() {
+					return new EntryIterator();
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		return entrySet;
+	}
+}
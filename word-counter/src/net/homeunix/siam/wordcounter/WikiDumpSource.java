@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Input for the scanner that reads a MediaWiki XML dump (pages-articles.xml, optionally
+ * compressed using gzip) using a streaming pull parser. Only the text of the latest revision of
+ * articles (namespace 0, no redirects) is passed on, the parser already decoded entities like
+ * &amp;lt; in it. Articles are separated by a new line. The dump is never in memory as a whole.
+ * For each article the position of its first character and its page id are recorded, so the
+ * page of a token can be found by its position, see {@link #pageIdAt(long)}. The position in
+ * {@link Run#TEXT} where the token of each article start is {@link #logged(long, long) recorded}
+ * too, so the page of a sample is found by the position of its word, see {@link #pageIdOfItem(long)}.
+ *
+ * @author Omar Siam
+ *
+ */
+public class WikiDumpSource implements Readable, Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final InputStream in;
+
+	private final XMLStreamReader xml;
+
+	private String ns;
+	private String pageId;
+	private boolean redirect;
+	private boolean inRevision;
+
+	/**
+	 * Inside the text element of an article.
+	 */
+	private boolean inText = false;
+
+	/**
+	 * The current text event has characters that aren't passed on yet.
+	 */
+	private boolean pending = false;
+
+	/**
+	 * Number of characters of the current text event passed on.
+	 */
+	private int pendingOffset;
+
+	/**
+	 * The new line after an article still has to be passed on.
+	 */
+	private boolean pendingSeparator = false;
+
+	private boolean done = false;
+
+	/**
+	 * Number of characters passed on so far.
+	 */
+	private long position = 0;
+
+	private long[] pageStarts = new long[1024];
+	private long[] pageIds = new long[1024];
+	private int pages = 0;
+
+	private long[] itemStarts = new long[1024];
+	private long[] itemPageIds = new long[1024];
+	private int itemPages = 0;
+
+	public WikiDumpSource(Path path) throws IOException {
+		InputStream file = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+		this.in = PrefetchingSource.isGzip(path) ? new GZIPInputStream(file, BUFFER_SIZE) : file;
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		try {
+			// Dumps contain far more entities than the JDK's parser allows by default.
+			factory.setProperty("http://www.oracle.com/xml/jaxp/properties/totalEntitySizeLimit", "0");
+		} catch (IllegalArgumentException e) {
+			// Some other parser without this limit
+		}
+		try {
+			xml = factory.createXMLStreamReader(in);
+		} catch (XMLStreamException e) {
+			in.close();
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Pass on as many characters of article text as fit into cb.
+	 */
+	@Override
+	public int read(CharBuffer cb) throws IOException {
+		int start = cb.position();
+		try {
+			while (cb.hasRemaining()) {
+				if (pending) {
+					pendingOffset += copy(cb);
+					continue;
+				}
+				if (pendingSeparator) {
+					cb.put('\n');
+					position++;
+					pendingSeparator = false;
+					continue;
+				}
+				if (done || !xml.hasNext()) {
+					done = true;
+					break;
+				}
+				next();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		int n = cb.position() - start;
+		return (n == 0 && done) ? -1 : n;
+	}
+
+	/**
+	 * Copy characters of the current text event into cb.
+	 */
+	private int copy(CharBuffer cb) throws XMLStreamException {
+		int length = xml.getTextLength() - pendingOffset;
+		int n = Math.min(length, cb.remaining());
+		if (cb.hasArray()) {
+			xml.getTextCharacters(pendingOffset, cb.array(), cb.arrayOffset() + cb.position(), n);
+			cb.position(cb.position() + n);
+		} else
+			cb.put(xml.getTextCharacters(), xml.getTextStart() + pendingOffset, n);
+		position += n;
+		if (n == length)
+			pending = false;
+		return n;
+	}
+
+	private void next() throws XMLStreamException {
+		switch (xml.next()) {
+		case XMLStreamConstants.START_ELEMENT:
+			String name = xml.getLocalName();
+			if (name.equals("page")) {
+				ns = null;
+				pageId = null;
+				redirect = false;
+				inRevision = false;
+			} else if (name.equals("ns"))
+				ns = xml.getElementText().trim();
+			else if (name.equals("id") && !inRevision && pageId == null)
+				pageId = xml.getElementText().trim();
+			else if (name.equals("redirect"))
+				redirect = true;
+			else if (name.equals("revision"))
+				inRevision = true;
+			else if (name.equals("text") && "0".equals(ns) && !redirect) {
+				inText = true;
+				addPage();
+			}
+			break;
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.CDATA:
+		case XMLStreamConstants.SPACE:
+			if (inText) {
+				pending = xml.getTextLength() > 0;
+				pendingOffset = 0;
+			}
+			break;
+		case XMLStreamConstants.END_ELEMENT:
+			if (inText && xml.getLocalName().equals("text")) {
+				inText = false;
+				pendingSeparator = true;
+			}
+			break;
+		}
+	}
+
+	private void addPage() {
+		if (pages == pageStarts.length) {
+			pageStarts = Arrays.copyOf(pageStarts, pages * 2);
+			pageIds = Arrays.copyOf(pageIds, pages * 2);
+		}
+		long id = -1;
+		try {
+			if (pageId != null)
+				id = Long.parseLong(pageId);
+		} catch (NumberFormatException e) {
+			// no usable id
+		}
+		pageStarts[pages] = position;
+		pageIds[pages++] = id;
+	}
+
+	/**
+	 * Find the article a character belongs to.
+	 * @param position
+	 * Position of a character in the text passed on, for example
+	 * {@link ScannerWithDelimiterAccess#lastTokenOffset()}.
+	 * @return
+	 * The page id or -1 if there is none.
+	 */
+	public long pageIdAt(long position) {
+		int i = Arrays.binarySearch(pageStarts, 0, pages, position);
+		if (i < 0)
+			i = -i - 2;
+		// Empty articles start at the same position as the next one
+		while (i >= 0 && i + 1 < pages && pageStarts[i + 1] <= position)
+			i++;
+		return i < 0 ? -1 : pageIds[i];
+	}
+
+	/**
+	 * Record the article of a token that was logged.
+	 * @param item
+	 * Position of the token in {@link Run#TEXT}.
+	 * @param position
+	 * Position of its first character in the text passed on.
+	 */
+	public void logged(long item, long position) {
+		long id = pageIdAt(position);
+		if (itemPages > 0 && itemPageIds[itemPages - 1] == id)
+			return;
+		if (itemPages == itemStarts.length) {
+			itemStarts = Arrays.copyOf(itemStarts, itemPages * 2);
+			itemPageIds = Arrays.copyOf(itemPageIds, itemPages * 2);
+		}
+		itemStarts[itemPages] = item;
+		itemPageIds[itemPages++] = id;
+	}
+
+	/**
+	 * Find the article an item of the log belongs to.
+	 * @param item
+	 * Position in {@link Run#TEXT}, for example of the word of a sample.
+	 * @return
+	 * The page id or -1 if there is none.
+	 */
+	public long pageIdOfItem(long item) {
+		int i = Arrays.binarySearch(itemStarts, 0, itemPages, item);
+		if (i < 0)
+			i = -i - 2;
+		return i < 0 ? -1 : itemPageIds[i];
+	}
+
+	/**
+	 * Write the articles of the logged token to a checkpoint.
+	 * @param out
+	 * @throws IOException
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeInt(itemPages);
+		for (int i = 0; i < itemPages; i++) {
+			out.writeLong(itemStarts[i]);
+			out.writeLong(itemPageIds[i]);
+		}
+	}
+
+	/**
+	 * Read what {@link #write(DataOutput)} wrote.
+	 * @param in
+	 * @throws IOException
+	 */
+	void read(DataInput in) throws IOException {
+		itemPages = in.readInt();
+		itemStarts = new long[Math.max(1024, itemPages)];
+		itemPageIds = new long[itemStarts.length];
+		for (int i = 0; i < itemPages; i++) {
+			itemStarts[i] = in.readLong();
+			itemPageIds[i] = in.readLong();
+		}
+	}
+
+	/**
+	 * Number of articles read so far.
+	 * @return
+	 */
+	public int pages() {
+		return pages;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			xml.close();
+		} catch (XMLStreamException e) {
+			// closing the stream is what matters
+		}
+		in.close();
+	}
+}
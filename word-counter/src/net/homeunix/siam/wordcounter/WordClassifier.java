@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2012, Omar Siam. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  I designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package net.homeunix.siam.wordcounter;
+
+import java.nio.ByteBuffer;
+import java.util.regex.Pattern;
+
+/**
+ * Tells words from other token by looking up each character in a 64K bitmap. A token is a word
+ * if it contains at least one of the characters in the bitmap, like a find() of a regexp
+ * character class. Tokenizers call it while they go over the characters of a token anyway,
+ * so there is no regexp to run and no Matcher to make for each token.
+ * Classifiers for other scripts are made of ranges of characters or of some character class
+ * pattern and can be combined using {@link #or(WordClassifier)}.
+ * Only characters of the basic multilingual plane are classified.
+ *
+ * @author Omar Siam
+ *
+ */
+public final class WordClassifier {
+
+	private static final byte LEAD_NEVER = 0;
+	private static final byte LEAD_ALWAYS = 1;
+	private static final byte LEAD_DECODE = 2;
+
+	/**
+	 * One bit for each char.
+	 */
+	private final long[] bits = new long[(Character.MAX_VALUE + 1) / 64];
+
+	/**
+	 * For each byte starting a UTF-8 sequence: are all, none or some of the characters starting
+	 * with it in the bitmap.
+	 */
+	private final byte[] utf8Lead = new byte[256];
+
+	private WordClassifier() {
+	}
+
+	/**
+	 * Classifier for the characters in some ranges.
+	 * @param fromTo
+	 * Pairs of the first and the last character of a range.
+	 * @return
+	 */
+	public static WordClassifier forRanges(char... fromTo) {
+		if (fromTo.length % 2 != 0)
+			throw new IllegalArgumentException("Ranges need a first and a last character");
+		WordClassifier result = new WordClassifier();
+		for (int i = 0; i < fromTo.length; i += 2)
+			for (int c = fromTo[i]; c <= fromTo[i + 1]; c++)
+				result.set(c);
+		result.buildUtf8();
+		return result;
+	}
+
+	/**
+	 * Classifier for all the characters a pattern finds on their own.
+	 * For a character class like [\\u0600-\\u06FF]+ words are the same as the token
+	 * the pattern finds something in.
+	 * @param pattern
+	 * @return
+	 */
+	public static WordClassifier forCharClass(Pattern pattern) {
+		WordClassifier result = new WordClassifier();
+		for (int c = 0; c <= Character.MAX_VALUE; c++)
+			if (pattern.matcher(String.valueOf((char) c)).find())
+				result.set(c);
+		result.buildUtf8();
+		return result;
+	}
+
+	/**
+	 * Classifier for the characters of this one and another one.
+	 * @param other
+	 * @return
+	 */
+	public WordClassifier or(WordClassifier other) {
+		WordClassifier result = new WordClassifier();
+		for (int i = 0; i < bits.length; i++)
+			result.bits[i] = bits[i] | other.bits[i];
+		result.buildUtf8();
+		return result;
+	}
+
+	private void set(int c) {
+		bits[c >>> 6] |= 1L << c;
+	}
+
+	private boolean allSet(int from, int to) {
+		for (int c = from; c <= to; c++)
+			if (!isWordChar((char) c))
+				return false;
+		return true;
+	}
+
+	private boolean noneSet(int from, int to) {
+		for (int c = from; c <= to; c++)
+			if (isWordChar((char) c))
+				return false;
+		return true;
+	}
+
+	private void buildUtf8() {
+		for (int b = 0; b < 0x80; b++)
+			utf8Lead[b] = isWordChar((char) b) ? LEAD_ALWAYS : LEAD_NEVER;
+		// 0x80 - 0xC1 are continuation bytes or never used, 0xF0 and above start supplementary characters.
+		for (int b = 0xC2; b < 0xF0; b++) {
+			int from, to;
+			if (b < 0xE0) {
+				from = (b & 0x1F) << 6;
+				to = from + 0x3F;
+			} else {
+				from = (b & 0x0F) << 12;
+				to = from + 0xFFF;
+			}
+			if (allSet(from, to))
+				utf8Lead[b] = LEAD_ALWAYS;
+			else if (noneSet(from, to))
+				utf8Lead[b] = LEAD_NEVER;
+			else
+				utf8Lead[b] = LEAD_DECODE;
+		}
+	}
+
+	/**
+	 * Is this one of the characters words are made of.
+	 * @param c
+	 * @return
+	 */
+	public boolean isWordChar(char c) {
+		return (bits[c >>> 6] & (1L << c)) != 0;
+	}
+
+	/**
+	 * Does the token contain a character words are made of.
+	 * @param token
+	 * @return
+	 */
+	public boolean isWord(CharSequence token) {
+		for (int i = 0; i < token.length(); i++)
+			if (isWordChar(token.charAt(i)))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Is the UTF-8 encoded character at i one of the characters words are made of.
+	 * Bytes that don't start a character are not.
+	 * @param text
+	 * @param i
+	 * @param end
+	 * The end of the token, the character has to end before it.
+	 * @return
+	 */
+	public boolean isWordCharAt(ByteBuffer text, int i, int end) {
+		int b = text.get(i) & 0xFF;
+		switch (utf8Lead[b]) {
+		case LEAD_ALWAYS:
+			return true;
+		case LEAD_NEVER:
+			return false;
+		default:
+			if (b < 0xE0) {
+				if (i + 1 >= end)
+					return false;
+				return isWordChar((char) (((b & 0x1F) << 6) | (text.get(i + 1) & 0x3F)));
+			}
+			if (i + 2 >= end)
+				return false;
+			return isWordChar((char) (((b & 0x0F) << 12) | ((text.get(i + 1) & 0x3F) << 6) | (text.get(i + 2) & 0x3F)));
+		}
+	}
+}
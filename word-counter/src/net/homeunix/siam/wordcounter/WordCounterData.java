@@ -21,26 +21,17 @@
 
 package net.homeunix.siam.wordcounter;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
-import net.homeunix.siam.wordcounter.MasryConsts.AlloGraphEnd;
-import net.homeunix.siam.wordcounter.MasryConsts.IrregularJoin;
-import net.homeunix.siam.wordcounter.MasryConsts.PostFemininMarkers;
-import net.homeunix.siam.wordcounter.MasryConsts.PostFemininPluralMarkers;
-import net.homeunix.siam.wordcounter.MasryConsts.PostNonMarkers;
-import net.homeunix.siam.wordcounter.MasryConsts.PostNounMarkers;
-import net.homeunix.siam.wordcounter.MasryConsts.PostVerbMarkers;
-import net.homeunix.siam.wordcounter.MasryConsts.PreNonMarkers;
-import net.homeunix.siam.wordcounter.MasryConsts.PreNounMarkers;
-import net.homeunix.siam.wordcounter.MasryConsts.PreVerbMarkers;
 import net.homeunix.siam.wordcounter.TokenAndType.TokenType;
 
 public class WordCounterData {
@@ -70,6 +61,8 @@ public class WordCounterData {
 				countO1 += c;
 			for (int c: base.get(o2).counts)
 				countO2 += c;
+			countO1 += base.get(o1).error;
+			countO2 += base.get(o2).error;
 			int ret = -Integer.compare(countO1, countO2);
 			// If frequency is the same sort alphabetically ascending
 			if (0 == ret) {
@@ -80,75 +73,255 @@ public class WordCounterData {
 
 	}
 	public class ContextData {
-		public TokenType[] types;
-		public String[] context;
-		public String word;
-		ContextData (String[] context, TokenType[] types, String word) {
-			this.types = types;
-			this.context = context;
-			this.word = word;
+		/**
+		 * Position of the word in {@link Run#TEXT}.
+		 */
+		public long position;
+		/**
+		 * Id of the form in {@link Run#TOKENS}.
+		 */
+		public int form;
+		/**
+		 * The file the context was found in if words are counted in more than one, else null.
+		 */
+		public String source;
+		/**
+		 * The items if they were copied before the log was {@link TokenLog#discard(long) discarded}.
+		 */
+		private int[] kept;
+		ContextData (long position, int form) {
+			this.position = position;
+			this.form = form;
+		}
+
+		/**
+		 * Read the context from the log.
+		 * @param length
+		 * Number of items.
+		 * @return
+		 * For each item of the context the code of a delimiter in {@link Run#DELIMITERS}
+		 * or the {@link #tokenItem(int) item} of a word or unknown token in {@link Run#TOKENS}.
+		 */
+		public int[] items(int length) {
+			if (kept != null)
+				return kept;
+			return Run.TEXT.context(position, length);
+		}
+
+		/**
+		 * Copy the context from the log so it can still be read after the log is discarded.
+		 * {@link #items(int)} returns the copy whatever length it is asked for.
+		 * @param length
+		 */
+		void keep(int length) {
+			if (kept == null)
+				kept = Run.TEXT.context(position, length);
+		}
+
+		boolean isKept() {
+			return kept != null;
+		}
+
+		/**
+		 * The context left the sample, it is never copied.
+		 */
+		void drop() {
+			if (kept == null)
+				kept = DROPPED;
+		}
+		
+		public String toString() {
+			StringBuilder sb = new StringBuilder("[");
+			for (int item: items(MasryConsts.CONTEXT_LENGTH)) {
+				if (sb.length() > 1)
+					sb.append(", ");
+				sb.append(item >= 0 ? Run.DELIMITERS.get(item) : Run.TOKENS.get(tokenId(item)));
+			}
+			return sb.append("]").toString();
 		}
 	}
+	/**
+	 * Context item for a token id. Items for token are negative, delimiter codes are not.
+	 * @param id
+	 * Id in {@link Run#TOKENS}.
+	 * @return
+	 */
+	public static int tokenItem(int id) {
+		return -2 - id;
+	}
+	/**
+	 * Token id of a negative context item.
+	 * @param item
+	 * @return
+	 */
+	public static int tokenId(int item) {
+		return -2 - item;
+	}
+	/**
+	 * Number of contexts kept for each form while counting, 0 keeps all of them.
+	 * The contexts kept are a uniform random sample of all the occurrences of the form.
+	 * Has to be set before counting starts.
+	 */
+	public static int samples = 0;
+	/**
+	 * Gets the contexts that enter a sample if the log is discarded while counting, else null.
+	 */
+	static SampleKeeper keeper = null;
+	/**
+	 * What a context that left its sample keeps instead of its items.
+	 */
+	private static final int[] DROPPED = new int[0];
+	/**
+	 * State of the random numbers for sampling. Every word has its own so the contexts kept
+	 * don't depend on the order threads count words in.
+	 */
+	private long seed = 22;
 	private int countCache = -1;
 	// If there is no word, there is no such object just null.
 	public int[] counts = {1};
-	public String[] words = new String[] {""};
+	/**
+	 * Id in {@link Run#TOKENS} of each form the word was found as, {@link TokenDictionary#NONE} until
+	 * the first one is found.
+	 */
+	public int[] forms = {TokenDictionary.NONE};
 	public String[][] stems = new String[][] {{""}};
 	public List<ContextData> contexts = new ArrayList<ContextData>();
-	public EnumSet<AlloGraphEnd> alloGraphFound = EnumSet.noneOf(AlloGraphEnd.class);
-	public EnumSet<PostFemininMarkers> postFemininMakrersFound = EnumSet.noneOf(PostFemininMarkers.class);
-	public EnumSet<PostFemininPluralMarkers> postFemininPluralMakrersFound = EnumSet.noneOf(PostFemininPluralMarkers.class);
-	public EnumSet<PreNounMarkers> preNounMarkersFound = EnumSet.noneOf(PreNounMarkers.class);
-	public EnumSet<PostNounMarkers> postNounMarkersFound = EnumSet.noneOf(PostNounMarkers.class);
-	public EnumSet<PreVerbMarkers> preVerbMarkersFound = EnumSet.noneOf(PreVerbMarkers.class);
-	public EnumSet<PostVerbMarkers> postVerbMarkersFound = EnumSet.noneOf(PostVerbMarkers.class);
-	public EnumSet<PreNonMarkers> preNonMarkersFound = EnumSet.noneOf(PreNonMarkers.class);
-	public EnumSet<PostNonMarkers> postNonMarkersFound = EnumSet.noneOf(PostNonMarkers.class);
-
-	public EnumSet<IrregularJoin> irregularJoin = EnumSet.noneOf(IrregularJoin.class);
-
-	@SuppressWarnings("rawtypes")
-	public EnumSet allEnums[] = new EnumSet[] {alloGraphFound, postFemininMakrersFound, postFemininPluralMakrersFound, preNounMarkersFound,
-		postNounMarkersFound, preVerbMarkersFound, postVerbMarkersFound, preNonMarkersFound, postNonMarkersFound,
-		irregularJoin};
-
-	private void addTokenAndTypeBuffer(CircularBuffer<TokenAndType> context, String word) {
-		int length = context.size();
-		int i = 0;
-		String[] contextStrings = new String[length];
-		TokenType[] contextTypes = new TokenType[length];
-		for (TokenAndType tt: context) {
-			contextStrings[i] = tt.token;
-			contextTypes[i++] = tt.type;
+	/**
+	 * The {@link Markers} found for the word.
+	 */
+	public long markers;
+
+	/**
+	 * How many occurrences the counts may be missing if words are counted {@link HeavyHitters approximately}.
+	 * The word was found at least as often as its counts say and at most error times more.
+	 */
+	public int error = 0;
+
+	/**
+	 * How many occurrences variants that weren't kept when counting {@link HeavyHitters approximately}
+	 * may add to the word they would have been joined with. They are not in the counts. Variants that were kept
+	 * add nothing, they are counted in an entry of their own or in the one they were joined with.
+	 */
+	public int missing = 0;
+
+	/**
+	 * Index in the heap of {@link HeavyHitters}.
+	 */
+	int rank;
+
+	/**
+	 * Markers that go with the data when it is added to another word. Feminin plural and irregular join
+	 * markers stay with the word that got them.
+	 */
+	private static final long ADDED_MARKERS = ~(Markers.mask(MasryConsts.PostFemininPluralMarkers.class)
+			| Markers.mask(MasryConsts.IrregularJoin.class));
+
+	/**
+	 * Are the contexts of each form one after the other in the order of words.
+	 */
+	private boolean formsGrouped = true;
+	private int lastForm = 0;
+
+	/**
+	 * Keep the context of the latest occurrence of form j. If only some are kept this is
+	 * Algorithm R: the n-th occurrence replaces a random one of those kept with probability samples / n.
+	 * The contexts of each form are kept together in the order of words.
+	 */
+	private void addContext(long position, int j, int form, String source) {
+		ContextData contextData = new ContextData(position, form);
+		contextData.source = source;
+		if (samples == 0)
+			contexts.add(contextData);
+		else {
+			int start = 0;
+			for (int i = 0; i < j; i++)
+				start += kept(i);
+			if (counts[j] <= samples) {
+				contexts.add(start + counts[j] - 1, contextData);
+				if (keeper != null)
+					keeper.sampled(contextData);
+			} else {
+				int r = nextInt(counts[j]);
+				if (r < samples) {
+					contexts.set(start + r, contextData).drop();
+					if (keeper != null)
+						keeper.sampled(contextData);
+				}
+			}
 		}
-		contexts.add(new ContextData(contextStrings, contextTypes, word));
-		if (words[0].equals(""))
-			words[0] = word;
+		if (forms[0] == TokenDictionary.NONE)
+			forms[0] = form;
 	}
 
-	public WordCounterData(CircularBuffer<TokenAndType> context, String word) {
-		addTokenAndTypeBuffer(context, word);
+	/**
+	 * The form j.
+	 * @param j
+	 * @return
+	 * A new String, empty if no form was found yet.
+	 */
+	public String form(int j) {
+		return forms[j] == TokenDictionary.NONE ? "" : Run.TOKENS.get(forms[j]);
+	}
+
+	/**
+	 * Number of contexts kept for form j.
+	 */
+	private int kept(int j) {
+		return samples == 0 ? counts[j] : Math.min(counts[j], samples);
+	}
+
+	/**
+	 * The contexts of form j, only if they are grouped.
+	 */
+	private List<ContextData> contextsOf(int j) {
+		int start = 0;
+		for (int i = 0; i < j; i++)
+			start += kept(i);
+		return contexts.subList(start, start + kept(j));
+	}
+
+	/**
+	 * Same as {@link Random#nextInt(int)}.
+	 */
+	private int nextInt(int bound) {
+		seed = (seed * 0x5DEECE66DL + 0xBL) & ((1L << 48) - 1);
+		return (int) (((seed >>> 16) * bound) >>> 32);
+	}
+
+	public WordCounterData(long position, int form) {
+		this(position, form, null);
+	}
+
+	/**
+	 * @param position
+	 * Position of the word in the log.
+	 * @param form
+	 * Id of the form the word was found as.
+	 * @param source
+	 * The file the word was found in.
+	 */
+	public WordCounterData(long position, int form, String source) {
+		// not the id, ids depend on the order threads find the token in
+		seed ^= Run.TOKENS.get(form).hashCode();
+		addContext(position, 0, form, source);
 	}
 
 	public WordCounterData(int count) {this.counts[0] = count;}
 
 	public void add(WordCounterData data) {
 		assert(this.counts[0] != 0);
-		this.alloGraphFound.addAll(data.alloGraphFound);
-		this.postFemininMakrersFound.addAll(data.postFemininMakrersFound);
-		this.preNounMarkersFound.addAll(data.preNounMarkersFound);
-		this.postNounMarkersFound.addAll(data.postNounMarkersFound);
-		this.preVerbMarkersFound.addAll(data.preVerbMarkersFound);
-		this.postVerbMarkersFound.addAll(data.postVerbMarkersFound);
-		this.preNonMarkersFound.addAll(data.preNonMarkersFound);
-		this.postNonMarkersFound.addAll(data.postNonMarkersFound);
+		groupForms();
+		data.groupForms();
+		this.markers |= data.markers & ADDED_MARKERS;
+		this.error += data.error;
+		this.missing += data.missing;
 		contexts.addAll(data.contexts);
-		int oldLength = words.length;
-		this.words = Arrays.copyOf(words, this.words.length + data.words.length);
+		int oldLength = forms.length;
+		this.forms = Arrays.copyOf(forms, this.forms.length + data.forms.length);
 		this.counts = Arrays.copyOf(counts, this.counts.length + data.counts.length); 
 		this.stems = Arrays.copyOf(stems, this.stems.length + data.stems.length);
-		for (int i = 0; i < data.words.length; i++) {			
-			this.words[oldLength + i] = data.words[i];
+		for (int i = 0; i < data.forms.length; i++) {			
+			this.forms[oldLength + i] = data.forms[i];
 			this.stems[oldLength + i] = data.stems[i];
 			this.counts[oldLength + i] = data.counts[i];
 			data.counts[i] = 0;
@@ -158,10 +331,321 @@ public class WordCounterData {
 		getCount(true);
 	}
 
-	public void inc(CircularBuffer<TokenAndType> context) {
+	public void inc(long position) {
 		counts[0]++;
 		countCache = -1;
-		addTokenAndTypeBuffer(context, words[0]);
+		addContext(position, 0, forms[0], null);
+	}
+
+	/**
+	 * Count one occurrence of the word found as form in the text.
+	 * @param position
+	 * @param form
+	 * Id of the form in {@link Run#TOKENS}.
+	 */
+	public void inc(long position, int form) {
+		inc(position, form, null);
+	}
+
+	/**
+	 * Count one occurrence of the word found as form in some file.
+	 * @param position
+	 * @param form
+	 * Id of the form in {@link Run#TOKENS}.
+	 * @param source
+	 */
+	public void inc(long position, int form, String source) {
+		int j = formIndex(form);
+		if (j < 0)
+			j = addForm(form);
+		// sampled contexts are always grouped
+		if (j < lastForm && samples == 0)
+			formsGrouped = false;
+		lastForm = j;
+		counts[j]++;
+		countCache = -1;
+		addContext(position, j, form, source);
+	}
+
+	private int formIndex(int form) {
+		for (int j = 0; j < forms.length; j++)
+			if (forms[j] == form)
+				return j;
+		return -1;
+	}
+
+	private int addForm(int form) {
+		int j = forms.length;
+		forms = Arrays.copyOf(forms, j + 1);
+		counts = Arrays.copyOf(counts, j + 1);
+		stems = Arrays.copyOf(stems, j + 1);
+		forms[j] = form;
+		stems[j] = new String[] {""};
+		return j;
+	}
+
+	/**
+	 * Put the contexts of each form together in the order of words, sampling and joining
+	 * rely on it. Contexts of the same form stay in the order they were found in.
+	 */
+	void groupForms() {
+		if (formsGrouped)
+			return;
+		int[] next = new int[forms.length];
+		for (int j = 1; j < forms.length; j++)
+			next[j] = next[j - 1] + kept(j - 1);
+		ContextData[] grouped = new ContextData[contexts.size()];
+		for (ContextData c: contexts)
+			grouped[next[formIndex(c.form)]++] = c;
+		contexts = new ArrayList<ContextData>(Arrays.asList(grouped));
+		formsGrouped = true;
+	}
+
+	/**
+	 * Add the occurrences counted somewhere else for the same word. Only for data that
+	 * wasn't joined with other words yet. The contexts of data go after the ones of this.
+	 * @param data
+	 */
+	public void addOccurrences(WordCounterData data) {
+		if (samples > 0) {
+			addSamples(data);
+			return;
+		}
+		for (int i = 0; i < data.forms.length; i++) {
+			int j = formIndex(data.forms[i]);
+			if (j < 0)
+				j = addForm(data.forms[i]);
+			counts[j] += data.counts[i];
+		}
+		countCache = -1;
+		contexts.addAll(data.contexts);
+		formsGrouped = forms.length == 1;
+		lastForm = forms.length - 1;
+	}
+
+	/**
+	 * Count one occurrence of word.
+	 * @param wordCount
+	 * @param word
+	 * @param position
+	 * Position of the word in the log.
+	 */
+	public static void count(Map<String, WordCounterData> wordCount, String word, long position) {
+		count(wordCount, word, Run.TOKENS.id(word, TokenType.WORD), position);
+	}
+
+	/**
+	 * Count one occurrence of a normalized word that was found as form in the text.
+	 * @param wordCount
+	 * @param word
+	 * @param form
+	 * Id of the form in {@link Run#TOKENS}.
+	 * @param position
+	 */
+	public static void count(Map<String, WordCounterData> wordCount, String word, int form, long position) {
+		count(wordCount, word, form, position, null);
+	}
+
+	/**
+	 * Count one occurrence of a normalized word that was found as form in the file source.
+	 * @param wordCount
+	 * @param word
+	 * @param form
+	 * Id of the form in {@link Run#TOKENS}.
+	 * @param position
+	 * @param source
+	 * Recorded with the context.
+	 */
+	public static void count(Map<String, WordCounterData> wordCount, String word, int form, long position, String source) {
+		// Try to get the current count of this word.
+		WordCounterData data = wordCount.get(word);
+		// If there this word was already counted increase,
+		if (data != null)
+			data.inc(position, form, source);
+		// else add the word with a count of 1.
+		else
+			wordCount.put(word, new WordCounterData(position, form, source));
+	}
+
+	/**
+	 * Same as {@link #addOccurrences(WordCounterData)} if only some contexts are kept.
+	 * The samples of a form both have are merged.
+	 */
+	private void addSamples(WordCounterData data) {
+		List<ContextData> merged = new ArrayList<ContextData>(contexts.size() + data.contexts.size());
+		for (int j = 0; j < forms.length; j++) {
+			int i = data.formIndex(forms[j]);
+			if (i < 0)
+				merged.addAll(contextsOf(j));
+			else
+				merged.addAll(mergeSamples(contextsOf(j), counts[j], data.contextsOf(i), data.counts[i]));
+		}
+		for (int i = 0; i < data.forms.length; i++) {
+			int j = formIndex(data.forms[i]);
+			if (j < 0) {
+				j = addForm(data.forms[i]);
+				merged.addAll(data.contextsOf(i));
+			}
+			counts[j] += data.counts[i];
+		}
+		contexts = merged;
+		countCache = -1;
+		lastForm = forms.length - 1;
+	}
+
+	/**
+	 * Draw samples contexts from the ones kept for na and nb occurrences. Each is drawn from a or b in
+	 * proportion to the number of occurrences not drawn yet, a random one of those kept.
+	 * @param a
+	 * @param na
+	 * @param b
+	 * @param nb
+	 * @return
+	 */
+	private List<ContextData> mergeSamples(List<ContextData> a, int na, List<ContextData> b, int nb) {
+		List<ContextData> result = new ArrayList<ContextData>(samples);
+		if (na + nb <= samples) {
+			result.addAll(a);
+			result.addAll(b);
+			return result;
+		}
+		List<ContextData> restA = new ArrayList<ContextData>(a);
+		List<ContextData> restB = new ArrayList<ContextData>(b);
+		while (result.size() < samples) {
+			List<ContextData> from;
+			if (nextInt(na + nb) < na) {
+				from = restA;
+				na--;
+			} else {
+				from = restB;
+				nb--;
+			}
+			// a random one, the last takes its place
+			int r = nextInt(from.size());
+			result.add(from.set(r, from.get(from.size() - 1)));
+			from.remove(from.size() - 1);
+		}
+		return result;
+	}
+
+	/**
+	 * Put the sampled contexts of each form in the order they were found in the text.
+	 */
+	private void sortSamples() {
+		for (int j = 0; j < forms.length; j++)
+			Collections.sort(contextsOf(j), new Comparator<ContextData>() {
+				@Override
+				public int compare(ContextData c1, ContextData c2) {
+					return c1.position < c2.position ? -1 : c1.position == c2.position ? 0 : 1;
+				}
+			});
+	}
+
+	/**
+	 * Put the forms in the order of their rank and the contexts of each form in the order of their
+	 * positions. Words that were counted by several threads at once are then the same as if
+	 * they were counted one after the other.
+	 * @param rank
+	 * Rank of each form id, the position of its first occurrence in the text will do.
+	 */
+	void orderForms(final int[] rank) {
+		groupForms();
+		Integer[] order = new Integer[forms.length];
+		for (int j = 0; j < order.length; j++)
+			order[j] = j;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer j1, Integer j2) {
+				return Integer.compare(rank[forms[j1]], rank[forms[j2]]);
+			}
+		});
+		List<List<ContextData>> groups = new ArrayList<List<ContextData>>(order.length);
+		for (int j = 0; j < order.length; j++)
+			groups.add(contextsOf(j));
+		int[] oldForms = forms;
+		int[] oldCounts = counts;
+		String[][] oldStems = stems;
+		List<ContextData> ordered = new ArrayList<ContextData>(contexts.size());
+		forms = new int[order.length];
+		counts = new int[order.length];
+		stems = new String[order.length][];
+		for (int k = 0; k < order.length; k++) {
+			int j = order[k];
+			List<ContextData> group = new ArrayList<ContextData>(groups.get(j));
+			Collections.sort(group, new Comparator<ContextData>() {
+				@Override
+				public int compare(ContextData c1, ContextData c2) {
+					return c1.position < c2.position ? -1 : c1.position == c2.position ? 0 : 1;
+				}
+			});
+			ordered.addAll(group);
+			forms[k] = oldForms[j];
+			counts[k] = oldCounts[j];
+			stems[k] = oldStems[j];
+		}
+		contexts = ordered;
+		lastForm = forms.length - 1;
+	}
+
+	/**
+	 * Move the contexts found in a log that was appended to another one.
+	 * @param offset
+	 * Position of the first item of the log in the other one.
+	 */
+	void moveContexts(long offset) {
+		for (ContextData c: contexts)
+			c.position += offset;
+	}
+
+	/**
+	 * Write the forms, counts and contexts to a checkpoint. The markers are not written,
+	 * they are only found after counting.
+	 * @param out
+	 * @throws IOException
+	 */
+	void write(Checkpoint.Output out) throws IOException {
+		out.writeInt(forms.length);
+		for (int j = 0; j < forms.length; j++) {
+			out.writeInt(forms[j]);
+			out.writeInt(counts[j]);
+		}
+		out.writeBoolean(formsGrouped);
+		out.writeInt(lastForm);
+		out.writeLong(seed);
+		out.writeInt(contexts.size());
+		for (ContextData c: contexts) {
+			out.writeInt(c.form);
+			out.writeLong(c.position);
+		}
+	}
+
+	/**
+	 * Read what {@link #write(Checkpoint.Output)} wrote.
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	static WordCounterData read(Checkpoint.Input in) throws IOException {
+		WordCounterData data = new WordCounterData(0);
+		int forms = in.readInt();
+		data.forms = new int[forms];
+		data.counts = new int[forms];
+		data.stems = new String[forms][];
+		for (int j = 0; j < forms; j++) {
+			data.forms[j] = in.readInt();
+			data.counts[j] = in.readInt();
+			data.stems[j] = new String[] {""};
+		}
+		data.formsGrouped = in.readBoolean();
+		data.lastForm = in.readInt();
+		data.seed = in.readLong();
+		int contexts = in.readInt();
+		data.contexts = new ArrayList<ContextData>(contexts);
+		for (int i = 0; i < contexts; i++) {
+			int form = in.readInt();
+			data.contexts.add(data.new ContextData(in.readLong(), form));
+		}
+		return data;
 	}
 
 	public String toString() {
@@ -169,8 +653,8 @@ public class WordCounterData {
 		String wordsList = "";
 		String stemsList = "";
 
-		for (String s: words) {
-			sb.append(s);
+		for (int j = 0; j < forms.length; j++) {
+			sb.append(form(j));
 			sb.append(", ");
 		}
 		sb.setLength(sb.length() - 2);
@@ -185,7 +669,7 @@ public class WordCounterData {
 		wordsList = sb.toString();
 		sb.setLength(0);
 		for (ContextData context: contexts)
-			sb.append(Arrays.deepToString(context.context));
+			sb.append(context);
 		return "Words: " + wordsList + " stems: " + stemsList + " count: " + countCache + " contexts: " + sb.toString() + " flags: unimplemented"; 
 	}
 
@@ -218,6 +702,9 @@ public class WordCounterData {
 	
 	public static List<WordCounterData.ContextData> randomSample(WordCounterData counterData, int m) {
 		rnd = new Random(22);
+		counterData.groupForms();
+		if (samples > 0)
+			counterData.sortSamples();
 		if (counterData.counts.length == 1)
 			return randomSample(counterData.contexts, m);
 		else {
@@ -254,7 +741,7 @@ public class WordCounterData {
 				ratios[(int)smallestR] += 1;
 			int lastStart = 0;
 			for (int i = 0; i < counterData.counts.length; i++) {
-				int contextLength = counterData.counts[i];
+				int contextLength = counterData.kept(i);
 				result.addAll(randomSample(counterData.contexts.subList(lastStart, lastStart + contextLength), (int)ratios[i]));
 				lastStart += contextLength;
 			}